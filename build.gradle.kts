@@ -13,6 +13,14 @@ java {
     targetCompatibility = JavaVersion.VERSION_1_8
 }
 
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
+
 tasks.register<Jar>("sourcesJar") {
     group = "documentation"
     from(sourceSets["main"].allSource)
@@ -0,0 +1,79 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.nio.Buffer;
+
+
+/**
+ * Utility methods for positioning NIO buffers.
+ * <p>
+ * As of Java 9, ByteBuffer and CharBuffer override flip(), position(int),
+ * and limit(int) with covariant return types. Code that calls them directly
+ * and that is compiled against a newer runtime therefore links against
+ * methods that don't exist on Java 8, which fails with a NoSuchMethodError.
+ * These methods call them through the Buffer base class, which links on all
+ * runtimes.
+ *
+ * @author F43nd1r
+ */
+public class Buffers
+{
+    /**
+     * Flips the given buffer.
+     * @param buffer the buffer.
+     * @return the same buffer.
+     */
+    public static <T extends Buffer> T flip(T buffer)
+    {
+        buffer.flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Sets the position of the given buffer.
+     * @param buffer   the buffer.
+     * @param position the new position.
+     * @return the same buffer.
+     */
+    public static <T extends Buffer> T position(T buffer, int position)
+    {
+        buffer.position(position);
+
+        return buffer;
+    }
+
+
+    /**
+     * Sets the limit of the given buffer.
+     * @param buffer the buffer.
+     * @param limit  the new limit.
+     * @return the same buffer.
+     */
+    public static <T extends Buffer> T limit(T buffer, int limit)
+    {
+        buffer.limit(limit);
+
+        return buffer;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.util.Set;
+
+
+/**
+ * This MappingProcessor delegates to another MappingProcessor, but it only
+ * lets it receive the class member mappings of a given set of obfuscated
+ * classes. It still passes all class mappings. A MappingReader then skips
+ * the class member lines of all other classes without parsing them.
+ *
+ * @author F43nd1r
+ */
+public class ClassMappingFilter implements MappingProcessor
+{
+    private final Set<String>      newClassNames;
+    private final MappingProcessor mappingProcessor;
+
+
+    /**
+     * Creates a new ClassMappingFilter.
+     * @param newClassNames    the new (obfuscated) names of the classes whose
+     *                         class member mappings are accepted.
+     * @param mappingProcessor the processor to which the mappings are passed.
+     */
+    public ClassMappingFilter(Set<String>      newClassNames,
+                              MappingProcessor mappingProcessor)
+    {
+        this.newClassNames    = newClassNames;
+        this.mappingProcessor = mappingProcessor;
+    }
+
+
+    // Implementations for MappingProcessor.
+
+    public boolean processClassMapping(String className,
+                                       String newClassName)
+    {
+        boolean interested = mappingProcessor.processClassMapping(className,
+                                                                  newClassName);
+
+        return interested &&
+               newClassNames.contains(newClassName);
+    }
+
+
+    public void processFieldMapping(String className,
+                                    String fieldType,
+                                    String fieldName,
+                                    String newClassName,
+                                    String newFieldName)
+    {
+        mappingProcessor.processFieldMapping(className,
+                                             fieldType,
+                                             fieldName,
+                                             newClassName,
+                                             newFieldName);
+    }
+
+
+    public void processMethodMapping(String className,
+                                     int    firstLineNumber,
+                                     int    lastLineNumber,
+                                     String methodReturnType,
+                                     String methodName,
+                                     String methodArguments,
+                                     String newClassName,
+                                     int    newFirstLineNumber,
+                                     int    newLastLineNumber,
+                                     String newMethodName)
+    {
+        mappingProcessor.processMethodMapping(className,
+                                              firstLineNumber,
+                                              lastLineNumber,
+                                              methodReturnType,
+                                              methodName,
+                                              methodArguments,
+                                              newClassName,
+                                              newFirstLineNumber,
+                                              newLastLineNumber,
+                                              newMethodName);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * This class represents a single entry of a mapping file, as presented by a
+ * MappingReader to a MappingEntryProcessor. The reader reuses the same
+ * instance for all entries, and its names are views on the reader's buffer,
+ * so they are only valid while the processor is handling the entry.
+ * Processors must copy any names that they want to keep, for instance with
+ * <code>toString()</code>.
+ *
+ * @see MappingEntryProcessor
+ *
+ * @author F43nd1r
+ */
+public class MappingEntry
+{
+    private final Utf8Sequence className         = new Utf8Sequence();
+    private final Utf8Sequence explicitClassName = new Utf8Sequence();
+    private final Utf8Sequence newClassName      = new Utf8Sequence();
+    private final Utf8Sequence type              = new Utf8Sequence();
+    private final Utf8Sequence name              = new Utf8Sequence();
+    private final Utf8Sequence arguments         = new Utf8Sequence();
+    private final Utf8Sequence newName           = new Utf8Sequence();
+
+    private boolean isClassMember;
+    private boolean hasExplicitClassName;
+
+    private int firstLineNumber;
+    private int lastLineNumber;
+    private int newFirstLineNumber;
+    private int newLastLineNumber;
+
+
+    MappingEntry()
+    {
+    }
+
+
+    /**
+     * Returns the original class name. For class member entries, this is
+     * the name of the class that contains the entry, or the original class
+     * name specified in the entry itself, for members that have been
+     * inlined or merged from other classes.
+     */
+    public CharSequence getClassName()
+    {
+        return hasExplicitClassName ? explicitClassName : className;
+    }
+
+
+    /**
+     * Returns the new class name. For class member entries, like in
+     * MappingProcessor, this is the original name of the class that
+     * contains the entry.
+     */
+    public CharSequence getNewClassName()
+    {
+        return isClassMember ? className : newClassName;
+    }
+
+
+    /**
+     * Returns the original external field type or method return type, or an
+     * empty sequence for class entries.
+     */
+    public CharSequence getType()
+    {
+        return type;
+    }
+
+
+    /**
+     * Returns the original field or method name, or an empty sequence for
+     * class entries.
+     */
+    public CharSequence getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Returns the original external method arguments, or an empty sequence
+     * for class entries and field entries.
+     */
+    public CharSequence getArguments()
+    {
+        return arguments;
+    }
+
+
+    /**
+     * Returns the new field or method name, or an empty sequence for class
+     * entries.
+     */
+    public CharSequence getNewName()
+    {
+        return newName;
+    }
+
+
+    /**
+     * Returns the first original line number of the method, or 0 if it is not
+     * known.
+     */
+    public int getFirstLineNumber()
+    {
+        return firstLineNumber;
+    }
+
+
+    /**
+     * Returns the last original line number of the method, or 0 if it is not
+     * known.
+     */
+    public int getLastLineNumber()
+    {
+        return lastLineNumber;
+    }
+
+
+    /**
+     * Returns the new first line number of the method, or 0 if it is not
+     * known.
+     */
+    public int getNewFirstLineNumber()
+    {
+        return newFirstLineNumber;
+    }
+
+
+    /**
+     * Returns the new last line number of the method, or 0 if it is not
+     * known.
+     */
+    public int getNewLastLineNumber()
+    {
+        return newLastLineNumber;
+    }
+
+
+    // Methods for the MappingReader.
+
+    /**
+     * Sets the class names of a class entry. The class names remain in use
+     * for the class member entries that follow.
+     */
+    void setClass(byte[] bytes,
+                  int    classNameStart,
+                  int    classNameEnd,
+                  int    newClassNameStart,
+                  int    newClassNameEnd)
+    {
+        className   .set(bytes, classNameStart,    classNameEnd);
+        newClassName.set(bytes, newClassNameStart, newClassNameEnd);
+
+        isClassMember        = false;
+        hasExplicitClassName = false;
+
+        type     .clear();
+        name     .clear();
+        arguments.clear();
+        newName  .clear();
+
+        setLineNumbers(0, 0, 0, 0);
+    }
+
+
+    /**
+     * Sets the names of a class member entry, in the context of the current
+     * class. The arguments are only used for method entries.
+     */
+    void setClassMember(byte[] bytes,
+                        int    classNameStart,
+                        int    classNameEnd,
+                        int    typeStart,
+                        int    typeEnd,
+                        int    nameStart,
+                        int    nameEnd,
+                        int    argumentsStart,
+                        int    argumentsEnd,
+                        int    newNameStart,
+                        int    newNameEnd)
+    {
+        isClassMember        = true;
+        hasExplicitClassName = classNameStart >= 0;
+        if (hasExplicitClassName)
+        {
+            explicitClassName.set(bytes, classNameStart, classNameEnd);
+        }
+
+        type     .set(bytes, typeStart,      typeEnd);
+        name     .set(bytes, nameStart,      nameEnd);
+        arguments.set(bytes, argumentsStart, argumentsEnd);
+        newName  .set(bytes, newNameStart,   newNameEnd);
+    }
+
+
+    /**
+     * Sets the line numbers of a method entry.
+     */
+    void setLineNumbers(int firstLineNumber,
+                        int lastLineNumber,
+                        int newFirstLineNumber,
+                        int newLastLineNumber)
+    {
+        this.firstLineNumber    = firstLineNumber;
+        this.lastLineNumber     = lastLineNumber;
+        this.newFirstLineNumber = newFirstLineNumber;
+        this.newLastLineNumber  = newLastLineNumber;
+    }
+
+
+    /**
+     * This CharSequence is a view on a range of UTF-8 encoded bytes. It
+     * presents ASCII bytes as they are, and only decodes other ranges into a
+     * string. It caches the string that it returns from
+     * <code>toString()</code>, until it is set to another range.
+     */
+    private static class Utf8Sequence implements CharSequence
+    {
+        private static final byte[] EMPTY = new byte[0];
+
+        private byte[] bytes = EMPTY;
+        private int    start;
+        private int    end;
+
+        // Whether the range only contains ASCII bytes: 1 if it does, 0 if it
+        // doesn't, or -1 if it hasn't been checked yet.
+        private int    ascii;
+        private String string;
+
+
+        public Utf8Sequence()
+        {
+        }
+
+
+        public Utf8Sequence(byte[] bytes, int start, int end)
+        {
+            set(bytes, start, end);
+        }
+
+
+        public void set(byte[] bytes, int start, int end)
+        {
+            this.bytes  = bytes;
+            this.start  = start;
+            this.end    = end;
+            this.ascii  = -1;
+            this.string = null;
+        }
+
+
+        public void clear()
+        {
+            set(EMPTY, 0, 0);
+        }
+
+
+        // Implementations for CharSequence.
+
+        public int length()
+        {
+            return isAscii() ? end - start : toString().length();
+        }
+
+
+        public char charAt(int index)
+        {
+            if (isAscii())
+            {
+                if (index < 0 || index >= end - start)
+                {
+                    throw new StringIndexOutOfBoundsException(index);
+                }
+
+                return (char)bytes[start + index];
+            }
+
+            return toString().charAt(index);
+        }
+
+
+        public CharSequence subSequence(int start, int end)
+        {
+            if (isAscii())
+            {
+                if (start < 0 || end > this.end - this.start || start > end)
+                {
+                    throw new StringIndexOutOfBoundsException("begin " + start + ", end " + end + ", length " + (this.end - this.start));
+                }
+
+                return new Utf8Sequence(bytes, this.start + start, this.start + end);
+            }
+
+            return toString().subSequence(start, end);
+        }
+
+
+        // Implementations for Object.
+
+        public String toString()
+        {
+            if (string == null)
+            {
+                string = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            }
+
+            return string;
+        }
+
+
+        // Small utility methods.
+
+        private boolean isAscii()
+        {
+            if (ascii < 0)
+            {
+                ascii = 1;
+                for (int index = start; index < end; index++)
+                {
+                    if (bytes[index] < 0)
+                    {
+                        ascii = 0;
+                        break;
+                    }
+                }
+            }
+
+            return ascii == 1;
+        }
+    }
+}
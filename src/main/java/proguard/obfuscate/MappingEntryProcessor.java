@@ -0,0 +1,65 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+/**
+ * This interface specifies methods to process the entries of a mapping file,
+ * like MappingProcessor, but without creating any strings. The entries are
+ * presented as a reusable MappingEntry, whose names are views on the buffer
+ * of the MappingReader. Processors only copy the names that they keep, so
+ * processors that ignore most entries don't create any garbage.
+ *
+ * @see MappingReader
+ * @see MappingEntry
+ *
+ * @author F43nd1r
+ */
+public interface MappingEntryProcessor
+{
+    /**
+     * Processes the given class name mapping.
+     *
+     * @param entry the class entry, with the original class name and the new
+     *              class name. It is only valid during this call.
+     * @return whether the processor is interested in receiving mappings of the
+     *         class members of this class.
+     */
+    public boolean processClassMapping(MappingEntry entry);
+
+    /**
+     * Processes the given field name mapping.
+     * @param entry the field entry, with the original class name, the
+     *              original external field type, the original field name,
+     *              the new class name, and the new field name. It is only
+     *              valid during this call.
+     */
+    public void processFieldMapping(MappingEntry entry);
+
+    /**
+     * Processes the given method name mapping.
+     * @param entry the method entry, with the original class name, the
+     *              original line numbers, the original external method
+     *              return type, name, and arguments, the new class name, the
+     *              new line numbers, and the new method name. It is only
+     *              valid during this call.
+     */
+    public void processMethodMapping(MappingEntry entry);
+}
@@ -21,21 +21,76 @@
 package proguard.obfuscate;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
 
 
 /**
  * This class can parse mapping files and invoke a processor for each of the
  * mapping entries.
+ * <p>
+ * The reader tokenizes the UTF-8 encoded bytes of the mapping file directly,
+ * without creating any intermediate strings. It only creates the names that
+ * it passes to a MappingProcessor. A MappingEntryProcessor receives views on
+ * the bytes instead, so it doesn't even need those. Character input is
+ * encoded on the fly.
  *
  * @author Eric Lafortune, modified by F43nd1r
  */
 public class MappingReader
 {
-    private final Reader mapping;
+    private static final int BLOCK_SIZE   = 64 * 1024;
+    private static final int MINIMUM_FILL = 1024;
+
+    private final Reader      mapping;
+    private final InputStream mappingInput;
+    private final ByteBuffer  mappingBuffer;
+
 
     public MappingReader(Reader mapping)
     {
-        this.mapping = mapping;
+        this(mapping, null, null);
+    }
+
+
+    /**
+     * Creates a new MappingReader for the given UTF-8 encoded input stream.
+     */
+    public MappingReader(InputStream mappingInput)
+    {
+        this(null, mappingInput, null);
+    }
+
+
+    /**
+     * Creates a new MappingReader for the given mapping file, mapping it into
+     * memory.
+     */
+    public MappingReader(File mappingFile) throws IOException
+    {
+        this(null, null, map(mappingFile));
+    }
+
+
+    /**
+     * Creates a new MappingReader for the UTF-8 encoded mapping file in the
+     * given buffer, from its current position up to its limit. The buffer can
+     * be read any number of times.
+     */
+    public MappingReader(ByteBuffer mappingBuffer)
+    {
+        this(null, null, mappingBuffer.slice());
+    }
+
+
+    private MappingReader(Reader      mapping,
+                          InputStream mappingInput,
+                          ByteBuffer  mappingBuffer)
+    {
+        this.mapping       = mapping;
+        this.mappingInput  = mappingInput;
+        this.mappingBuffer = mappingBuffer;
     }
 
 
@@ -45,40 +100,71 @@ public class MappingReader
      */
     public void pump(MappingProcessor mappingProcessor) throws IOException
     {
-        LineNumberReader reader = new LineNumberReader(
-                new BufferedReader(mapping));
+        pump(new MappingProcessorAdapter(mappingProcessor));
+    }
+
+
+    /**
+     * Reads the mapping file once, presenting all of the encountered mapping
+     * entries to all of the given processors.
+     * @see MultiMappingProcessor
+     */
+    public void pump(MappingProcessor... mappingProcessors) throws IOException
+    {
+        pump(new MultiMappingProcessor(mappingProcessors));
+    }
+
+
+    /**
+     * Reads the mapping file, presenting all of the encountered mapping entries
+     * to the given entry processor, without creating any strings.
+     */
+    public void pump(MappingEntryProcessor mappingEntryProcessor) throws IOException
+    {
+        LineParser parser = new LineParser(mappingEntryProcessor);
+
         try
         {
-            String className = null;
-
-            // Read the subsequent class mappings and class member mappings.
-            while (true)
+            if (mappingBuffer != null && mappingBuffer.hasArray())
             {
-                String line = reader.readLine();
-
-                if (line == null)
-                {
-                    break;
-                }
+                // Parse the bytes in place.
+                int start = mappingBuffer.arrayOffset() + mappingBuffer.position();
+                int end   = mappingBuffer.arrayOffset() + mappingBuffer.limit();
 
-                line = line.trim();
+                parser.processLines(mappingBuffer.array(), start, end, true);
+            }
+            else
+            {
+                // Parse the bytes block by block.
+                ByteSource source = new ByteSource();
 
-                // Is it a non-comment line?
-                if (!line.startsWith("#"))
+                byte[] block = new byte[BLOCK_SIZE];
+                int    end   = 0;
+                while (true)
                 {
-                    // Is it a class mapping or a class member mapping?
-                    if (line.endsWith(":"))
+                    // Make sure there is some room left in the block.
+                    if (block.length - end < MINIMUM_FILL)
                     {
-                        // Process the class mapping and remember the class's
-                        // old name.
-                        className = processClassMapping(line, mappingProcessor);
+                        byte[] newBlock = new byte[block.length * 2];
+                        System.arraycopy(block, 0, newBlock, 0, end);
+                        block = newBlock;
                     }
-                    else if (className != null)
+
+                    int count = source.fill(block, end);
+                    if (count < 0)
                     {
-                        // Process the class member mapping, in the context of
-                        // the current old class name.
-                        processClassMemberMapping(className, line, mappingProcessor);
+                        // Parse the last line.
+                        parser.processLines(block, 0, end, true);
+                        break;
                     }
+
+                    end += count;
+
+                    // Parse all complete lines and keep any remaining bytes.
+                    int start = parser.processLines(block, 0, end, false);
+
+                    System.arraycopy(block, start, block, 0, end - start);
+                    end -= start;
                 }
             }
         }
@@ -90,7 +176,14 @@ public class MappingReader
         {
             try
             {
-                reader.close();
+                if (mapping != null)
+                {
+                    mapping.close();
+                }
+                if (mappingInput != null)
+                {
+                    mappingInput.close();
+                }
             }
             catch (IOException ex)
             {
@@ -101,136 +194,586 @@ public class MappingReader
 
 
     /**
-     * Parses the given line with a class mapping and processes the
-     * results with the given mapping processor. Returns the old class name,
-     * or null if any subsequent class member lines can be ignored.
+     * Maps the given file into memory.
+     */
+    private static ByteBuffer map(File file) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            long        size    = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Mapping file too large ["+file+"]");
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+
+    /**
+     * This class fills blocks with UTF-8 encoded bytes from the input of the
+     * reader.
      */
-    private String processClassMapping(String           line,
-            MappingProcessor mappingProcessor)
+    private class ByteSource
     {
-        // See if we can parse "___ -> ___:", containing the original
-        // class name and the new class name.
+        private final ByteBuffer     buffer  = mappingBuffer == null ? null : mappingBuffer.duplicate();
+        private final CharBuffer     chars   = mapping       == null ? null : Buffers.flip(CharBuffer.allocate(BLOCK_SIZE / 4));
+        private final CharsetEncoder encoder = mapping       == null ? null :
+            StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private boolean endOfInput;
 
-        int arrowIndex = line.indexOf("->");
-        if (arrowIndex < 0)
+
+        /**
+         * Fills the given block with bytes, from the given offset.
+         * @return the number of bytes, or -1 at the end of the input.
+         */
+        public int fill(byte[] block, int offset) throws IOException
         {
-            return null;
+            int length = block.length - offset;
+
+            if (buffer != null)
+            {
+                int count = Math.min(length, buffer.remaining());
+                if (count == 0)
+                {
+                    return -1;
+                }
+
+                buffer.get(block, offset, count);
+
+                return count;
+            }
+
+            if (mappingInput != null)
+            {
+                int count;
+                do
+                {
+                    count = mappingInput.read(block, offset, length);
+                }
+                while (count == 0);
+
+                return count;
+            }
+
+            // Encode the characters from the reader.
+            ByteBuffer bytes = ByteBuffer.wrap(block, offset, length);
+            while (true)
+            {
+                encoder.encode(chars, bytes, endOfInput);
+                if (bytes.position() > offset)
+                {
+                    return bytes.position() - offset;
+                }
+
+                if (endOfInput)
+                {
+                    encoder.flush(bytes);
+
+                    return bytes.position() > offset ?
+                        bytes.position() - offset :
+                        -1;
+                }
+
+                // Read some more characters.
+                chars.compact();
+                endOfInput = mapping.read(chars) < 0;
+                Buffers.flip(chars);
+            }
         }
+    }
 
-        int colonIndex = line.indexOf(':', arrowIndex + 2);
-        if (colonIndex < 0)
+
+    /**
+     * This MappingEntryProcessor creates the names of the mapping entries and
+     * passes them to a MappingProcessor.
+     */
+    private static class MappingProcessorAdapter implements MappingEntryProcessor
+    {
+        private final MappingProcessor mappingProcessor;
+
+        // The original name of the current class, which is shared by its
+        // members.
+        private String className;
+
+
+        public MappingProcessorAdapter(MappingProcessor mappingProcessor)
+        {
+            this.mappingProcessor = mappingProcessor;
+        }
+
+
+        // Implementations for MappingEntryProcessor.
+
+        public boolean processClassMapping(MappingEntry entry)
+        {
+            className = entry.getClassName().toString();
+
+            return mappingProcessor.processClassMapping(className,
+                                                        entry.getNewClassName().toString());
+        }
+
+
+        public void processFieldMapping(MappingEntry entry)
+        {
+            mappingProcessor.processFieldMapping(className(entry),
+                                                 entry.getType().toString(),
+                                                 entry.getName().toString(),
+                                                 className,
+                                                 entry.getNewName().toString());
+        }
+
+
+        public void processMethodMapping(MappingEntry entry)
         {
-            return null;
+            mappingProcessor.processMethodMapping(className(entry),
+                                                  entry.getFirstLineNumber(),
+                                                  entry.getLastLineNumber(),
+                                                  entry.getType().toString(),
+                                                  entry.getName().toString(),
+                                                  entry.getArguments().toString(),
+                                                  className,
+                                                  entry.getNewFirstLineNumber(),
+                                                  entry.getNewLastLineNumber(),
+                                                  entry.getNewName().toString());
         }
 
-        // Extract the elements.
-        String className    = line.substring(0, arrowIndex).trim();
-        String newClassName = line.substring(arrowIndex + 2, colonIndex).trim();
 
-        // Process this class name mapping.
-        boolean interested = mappingProcessor.processClassMapping(className, newClassName);
+        // Small utility methods.
+
+        /**
+         * Returns the original class name of the given class member entry,
+         * reusing the name of the current class if possible.
+         */
+        private String className(MappingEntry entry)
+        {
+            // The entry caches the name of the current class, so the
+            // comparison is usually an identity check.
+            String entryClassName = entry.getClassName().toString();
 
-        return interested ? className : null;
+            return entryClassName.equals(className) ? className : entryClassName;
+        }
     }
 
 
     /**
-     * Parses the given line with a class member mapping and processes the
-     * results with the given mapping processor.
+     * This class parses lines of UTF-8 encoded bytes and presents the mapping
+     * entries to a mapping entry processor.
      */
-    private void processClassMemberMapping(String           className,
-            String           line,
-            MappingProcessor mappingProcessor)
+    private static class LineParser
     {
-        // See if we can parse one of
-        //     ___ ___ -> ___
-        //     ___:___:___ ___(___) -> ___
-        //     ___:___:___ ___(___):___ -> ___
-        //     ___:___:___ ___(___):___:___ -> ___
-        // containing the optional line numbers, the return type, the original
-        // field/method name, optional arguments, the optional original line
-        // numbers, and the new field/method name. The original field/method
-        // name may contain an original class name "___.___".
-
-        int colonIndex1    =                           line.indexOf(':');
-        int colonIndex2    = colonIndex1    < 0 ? -1 : line.indexOf(':', colonIndex1    + 1);
-        int spaceIndex     =                           line.indexOf(' ', colonIndex2    + 2);
-        int argumentIndex1 =                           line.indexOf('(', spaceIndex     + 1);
-        int argumentIndex2 = argumentIndex1 < 0 ? -1 : line.indexOf(')', argumentIndex1 + 1);
-        int colonIndex3    = argumentIndex2 < 0 ? -1 : line.indexOf(':', argumentIndex2 + 1);
-        int colonIndex4    = colonIndex3    < 0 ? -1 : line.indexOf(':', colonIndex3    + 1);
-        int arrowIndex     =                           line.indexOf("->", (colonIndex4    >= 0 ? colonIndex4    :
-                                                                                   colonIndex3    >= 0 ? colonIndex3    :
-                                                                                           argumentIndex2 >= 0 ? argumentIndex2 :
-                                                                                                   spaceIndex) + 1);
-
-        if (spaceIndex < 0 ||
-            arrowIndex < 0)
-        {
-            return;
-        }
-
-        // Extract the elements.
-        String type    = line.substring(colonIndex2 + 1, spaceIndex).trim();
-        String name    = line.substring(spaceIndex + 1, argumentIndex1 >= 0 ? argumentIndex1 : arrowIndex).trim();
-        String newName = line.substring(arrowIndex + 2).trim();
-
-        // Does the method name contain an explicit original class name?
-        String newClassName = className;
-        int dotIndex = name.lastIndexOf('.');
-        if (dotIndex >= 0)
-        {
-            className = name.substring(0, dotIndex);
-            name      = name.substring(dotIndex + 1);
-        }
-
-        // Process this class member mapping.
-        if (type.length()    > 0 &&
-            name.length()    > 0 &&
-            newName.length() > 0)
-        {
-            // Is it a field or a method?
-            if (argumentIndex2 < 0)
-            {
-                mappingProcessor.processFieldMapping(className,
-                        type,
-                        name,
-                        newClassName,
-                        newName);
+        private final MappingEntryProcessor mappingEntryProcessor;
+        private final MappingEntry          entry = new MappingEntry();
+
+        // The original name and the new name of the current class, copied
+        // from its class mapping line, since the line may not stay in the
+        // buffer.
+        private byte[] classNames = new byte[256];
+
+        // Whether the class member lines of the current class are processed.
+        private boolean interested;
+
+
+        public LineParser(MappingEntryProcessor mappingEntryProcessor)
+        {
+            this.mappingEntryProcessor = mappingEntryProcessor;
+        }
+
+
+        /**
+         * Parses the lines in the given range of bytes.
+         * @param bytes      the bytes.
+         * @param start      the start offset of the first line.
+         * @param end        the end offset of the bytes.
+         * @param endOfInput specifies whether the last line is complete, even
+         *                   if it isn't terminated.
+         * @return the start offset of the first incomplete line.
+         */
+        public int processLines(byte[]  bytes,
+                                int     start,
+                                int     end,
+                                boolean endOfInput)
+        {
+            int lineStart = start;
+            int index     = start;
+            while (index < end)
+            {
+                byte b = bytes[index];
+                if (b == '\n' || b == '\r')
+                {
+                    processLine(bytes, lineStart, index);
+
+                    lineStart = index + 1;
+                }
+
+                index++;
             }
-            else
+
+            if (endOfInput && lineStart < end)
             {
-                int firstLineNumber = 0;
-                int lastLineNumber  = 0;
-                int newFirstLineNumber = 0;
-                int newLastLineNumber  = 0;
+                processLine(bytes, lineStart, end);
+
+                lineStart = end;
+            }
 
-                if (colonIndex2 >= 0)
+            return lineStart;
+        }
+
+
+        /**
+         * Parses the given line.
+         */
+        private void processLine(byte[] bytes, int start, int end)
+        {
+            start = trimStart(bytes, start, end);
+            end   = trimEnd(bytes, start, end);
+
+            // Is it a non-comment line?
+            if (start == end || bytes[start] != '#')
+            {
+                // Is it a class mapping or a class member mapping?
+                if (start < end && bytes[end - 1] == ':')
+                {
+                    // Process the class mapping and remember whether the
+                    // processor is interested in its class members.
+                    interested = processClassMapping(bytes, start, end);
+                }
+                else if (interested)
                 {
-                    firstLineNumber = newFirstLineNumber = Integer.parseInt(line.substring(0, colonIndex1).trim());
-                    lastLineNumber  = newLastLineNumber  = Integer.parseInt(line.substring(colonIndex1 + 1, colonIndex2).trim());
+                    // Process the class member mapping, in the context of
+                    // the current class.
+                    processClassMemberMapping(bytes, start, end);
                 }
+            }
+        }
+
+
+        /**
+         * Parses the given line with a class mapping and processes the
+         * results with the mapping processor. Returns whether the subsequent
+         * class member lines should be processed.
+         */
+        private boolean processClassMapping(byte[] line, int start, int end)
+        {
+            // See if we can parse "___ -> ___:", containing the original
+            // class name and the new class name.
+            // The indices are relative to the start of the line.
+
+            int arrowIndex = indexOfArrow(line, start, end, 0);
+            if (arrowIndex < 0)
+            {
+                return false;
+            }
+
+            int colonIndex = indexOf(line, start, end, arrowIndex + 2, ':');
+            if (colonIndex < 0)
+            {
+                return false;
+            }
+
+            // Find the elements, as absolute offsets.
+            int classNameStart    = trimStart(line, start,                  start + arrowIndex);
+            int classNameEnd      = trimEnd  (line, classNameStart,         start + arrowIndex);
+            int newClassNameStart = trimStart(line, start + arrowIndex + 2, start + colonIndex);
+            int newClassNameEnd   = trimEnd  (line, newClassNameStart,      start + colonIndex);
+
+            // Copy the names.
+            int classNameLength    = classNameEnd    - classNameStart;
+            int newClassNameLength = newClassNameEnd - newClassNameStart;
+            if (classNames.length < classNameLength + newClassNameLength)
+            {
+                classNames = new byte[(classNameLength + newClassNameLength) * 2];
+            }
+
+            System.arraycopy(line, classNameStart,    classNames, 0,               classNameLength);
+            System.arraycopy(line, newClassNameStart, classNames, classNameLength, newClassNameLength);
+
+            // Process this class name mapping.
+            entry.setClass(classNames,
+                           0,
+                           classNameLength,
+                           classNameLength,
+                           classNameLength + newClassNameLength);
 
-                if (colonIndex3 >= 0)
+            return mappingEntryProcessor.processClassMapping(entry);
+        }
+
+
+        /**
+         * Parses the given line with a class member mapping and processes the
+         * results with the mapping processor.
+         */
+        private void processClassMemberMapping(byte[] line,
+                                               int    start,
+                                               int    end)
+        {
+            // See if we can parse one of
+            //     ___ ___ -> ___
+            //     ___:___:___ ___(___) -> ___
+            //     ___:___:___ ___(___):___ -> ___
+            //     ___:___:___ ___(___):___:___ -> ___
+            // containing the optional line numbers, the return type, the original
+            // field/method name, optional arguments, the optional original line
+            // numbers, and the new field/method name. The original field/method
+            // name may contain an original class name "___.___".
+            // The indices are relative to the start of the line.
+
+            int colonIndex1    =                           indexOf(line, start, end, 0,                  ':');
+            int colonIndex2    = colonIndex1    < 0 ? -1 : indexOf(line, start, end, colonIndex1    + 1, ':');
+            int spaceIndex     =                           indexOf(line, start, end, colonIndex2    + 2, ' ');
+            int argumentIndex1 =                           indexOf(line, start, end, spaceIndex     + 1, '(');
+            int argumentIndex2 = argumentIndex1 < 0 ? -1 : indexOf(line, start, end, argumentIndex1 + 1, ')');
+            int colonIndex3    = argumentIndex2 < 0 ? -1 : indexOf(line, start, end, argumentIndex2 + 1, ':');
+            int colonIndex4    = colonIndex3    < 0 ? -1 : indexOf(line, start, end, colonIndex3    + 1, ':');
+            int arrowIndex     =                           indexOfArrow(line, start, end, (colonIndex4    >= 0 ? colonIndex4    :
+                                                                                          colonIndex3    >= 0 ? colonIndex3    :
+                                                                                          argumentIndex2 >= 0 ? argumentIndex2 :
+                                                                                                                spaceIndex) + 1);
+
+            if (spaceIndex < 0 ||
+                arrowIndex < 0)
+            {
+                return;
+            }
+
+            // Find the elements, as absolute offsets.
+            int nameEnd = start + (argumentIndex1 >= 0 ? argumentIndex1 : arrowIndex);
+
+            int typeStart    = trimStart(line, start + colonIndex2 + 1, start + spaceIndex);
+            int typeEnd      = trimEnd  (line, typeStart,               start + spaceIndex);
+            int nameStart    = trimStart(line, start + spaceIndex + 1,  nameEnd);
+                nameEnd      = trimEnd  (line, nameStart,               nameEnd);
+            int newNameStart = trimStart(line, start + arrowIndex + 2,  end);
+            int newNameEnd   = trimEnd  (line, newNameStart,            end);
+
+            // Does the method name contain an explicit original class name?
+            int classNameStart = nameStart;
+            int classNameEnd   = lastIndexOf(line, nameStart, nameEnd, '.');
+            if (classNameEnd >= 0)
+            {
+                nameStart = classNameEnd + 1;
+            }
+
+            // Process this class member mapping.
+            if (typeEnd    > typeStart &&
+                nameEnd    > nameStart &&
+                newNameEnd > newNameStart)
+            {
+                // Is it a field or a method?
+                if (argumentIndex2 < 0)
                 {
-                    firstLineNumber = Integer.parseInt(line.substring(colonIndex3 + 1, colonIndex4 > 0 ? colonIndex4 : arrowIndex).trim());
-                    lastLineNumber  = colonIndex4 < 0 ? firstLineNumber :
-                            Integer.parseInt(line.substring(colonIndex4 + 1, arrowIndex).trim());
+                    entry.setClassMember(line,
+                                         classNameEnd >= 0 ? classNameStart : -1,
+                                         classNameEnd,
+                                         typeStart,
+                                         typeEnd,
+                                         nameStart,
+                                         nameEnd,
+                                         0,
+                                         0,
+                                         newNameStart,
+                                         newNameEnd);
+                    entry.setLineNumbers(0, 0, 0, 0);
+
+                    mappingEntryProcessor.processFieldMapping(entry);
                 }
+                else
+                {
+                    int firstLineNumber    = 0;
+                    int lastLineNumber     = 0;
+                    int newFirstLineNumber = 0;
+                    int newLastLineNumber  = 0;
+
+                    if (colonIndex2 >= 0)
+                    {
+                        firstLineNumber = newFirstLineNumber = parseInt(line, start,                   start + colonIndex1);
+                        lastLineNumber  = newLastLineNumber  = parseInt(line, start + colonIndex1 + 1, start + colonIndex2);
+                    }
+
+                    if (colonIndex3 >= 0)
+                    {
+                        firstLineNumber = parseInt(line, start + colonIndex3 + 1, start + (colonIndex4 > 0 ? colonIndex4 : arrowIndex));
+                        lastLineNumber  = colonIndex4 < 0 ? firstLineNumber :
+                                          parseInt(line, start + colonIndex4 + 1, start + arrowIndex);
+                    }
+
+                    int argumentsStart = trimStart(line, start + argumentIndex1 + 1, start + argumentIndex2);
+                    int argumentsEnd   = trimEnd  (line, argumentsStart,             start + argumentIndex2);
 
-                String arguments = line.substring(argumentIndex1 + 1, argumentIndex2).trim();
+                    entry.setClassMember(line,
+                                         classNameEnd >= 0 ? classNameStart : -1,
+                                         classNameEnd,
+                                         typeStart,
+                                         typeEnd,
+                                         nameStart,
+                                         nameEnd,
+                                         argumentsStart,
+                                         argumentsEnd,
+                                         newNameStart,
+                                         newNameEnd);
+                    entry.setLineNumbers(firstLineNumber,
+                                         lastLineNumber,
+                                         newFirstLineNumber,
+                                         newLastLineNumber);
 
-                mappingProcessor.processMethodMapping(className,
-                        firstLineNumber,
-                        lastLineNumber,
-                        type,
-                        name,
-                        arguments,
-                        newClassName,
-                        newFirstLineNumber,
-                        newLastLineNumber,
-                        newName);
+                    mappingEntryProcessor.processMethodMapping(entry);
+                }
             }
         }
+
+
+        // Small utility methods.
+
+        /**
+         * Returns the index of the given character in the given line, relative
+         * to the start of the line, or -1. Like String#indexOf, the search
+         * starts at the given relative index, or at 0 if it is negative.
+         */
+        private static int indexOf(byte[] line, int start, int end, int fromIndex, char c)
+        {
+            for (int index = start + Math.max(fromIndex, 0); index < end; index++)
+            {
+                if (line[index] == c)
+                {
+                    return index - start;
+                }
+            }
+
+            return -1;
+        }
+
+
+        /**
+         * Returns the index of the first "->" in the given line, relative to
+         * the start of the line, or -1, searching from the given relative
+         * index.
+         */
+        private static int indexOfArrow(byte[] line, int start, int end, int fromIndex)
+        {
+            for (int index = start + Math.max(fromIndex, 0); index < end - 1; index++)
+            {
+                if (line[index] == '-' && line[index + 1] == '>')
+                {
+                    return index - start;
+                }
+            }
+
+            return -1;
+        }
+
+
+        /**
+         * Returns the offset of the last occurrence of the given character in
+         * the given range, or -1.
+         */
+        private static int lastIndexOf(byte[] bytes, int start, int end, char c)
+        {
+            for (int index = end - 1; index >= start; index--)
+            {
+                if (bytes[index] == c)
+                {
+                    return index;
+                }
+            }
+
+            return -1;
+        }
+
+
+        /**
+         * Returns the offset of the first non-whitespace byte in the given
+         * range, or its end.
+         */
+        private static int trimStart(byte[] bytes, int start, int end)
+        {
+            while (start < end && (bytes[start] & 0xff) <= ' ')
+            {
+                start++;
+            }
+
+            return start;
+        }
+
+
+        /**
+         * Returns the offset after the last non-whitespace byte in the given
+         * range, or its start.
+         */
+        private static int trimEnd(byte[] bytes, int start, int end)
+        {
+            while (end > start && (bytes[end - 1] & 0xff) <= ' ')
+            {
+                end--;
+            }
+
+            return end;
+        }
+
+
+        /**
+         * Parses the trimmed decimal integer in the given range, like
+         * Integer#parseInt, but without creating a string.
+         */
+        private static int parseInt(byte[] bytes, int start, int end)
+        {
+            start = trimStart(bytes, start, end);
+            end   = trimEnd(bytes, start, end);
+
+            int     index    = start;
+            boolean negative = false;
+            if (index < end && (bytes[index] == '-' || bytes[index] == '+'))
+            {
+                negative = bytes[index++] == '-';
+            }
+
+            if (index == end)
+            {
+                throw numberFormatException(bytes, start, end);
+            }
+
+            long value = 0L;
+            while (index < end)
+            {
+                int digit = bytes[index++] - '0';
+                if (digit < 0 || digit > 9)
+                {
+                    throw numberFormatException(bytes, start, end);
+                }
+
+                value = value * 10L + digit;
+                if (value > Integer.MAX_VALUE + 1L)
+                {
+                    throw numberFormatException(bytes, start, end);
+                }
+            }
+
+            if (negative)
+            {
+                value = -value;
+            }
+
+            if (value > Integer.MAX_VALUE)
+            {
+                throw numberFormatException(bytes, start, end);
+            }
+
+            return (int)value;
+        }
+
+
+        private static NumberFormatException numberFormatException(byte[] bytes, int start, int end)
+        {
+            return new NumberFormatException("For input string: \"" + new String(bytes, start, end - start, StandardCharsets.UTF_8) + "\"");
+        }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+
+/**
+ * This MappingProcessor delegates to a number of given MappingProcessor
+ * instances, so a MappingReader can feed all of them in a single pass over
+ * a mapping file. The processors share the names that the reader creates.
+ * Each processor only receives the class member mappings of the classes
+ * that it is interested in. A MappingReader only skips the class member
+ * lines of classes that none of the processors are interested in.
+ *
+ * @author F43nd1r
+ */
+public class MultiMappingProcessor implements MappingProcessor
+{
+    private final MappingProcessor[] mappingProcessors;
+
+    // Whether each processor is interested in the members of the current
+    // class.
+    private final boolean[] interested;
+
+
+    /**
+     * Creates a new MultiMappingProcessor.
+     * @param mappingProcessors the mapping processors to which the mappings
+     *                          are passed, in order.
+     */
+    public MultiMappingProcessor(MappingProcessor... mappingProcessors)
+    {
+        this.mappingProcessors = mappingProcessors.clone();
+        this.interested        = new boolean[mappingProcessors.length];
+    }
+
+
+    // Implementations for MappingProcessor.
+
+    public boolean processClassMapping(String className,
+                                       String newClassName)
+    {
+        boolean anyInterested = false;
+
+        for (int index = 0; index < mappingProcessors.length; index++)
+        {
+            boolean processorInterested =
+                mappingProcessors[index].processClassMapping(className,
+                                                             newClassName);
+
+            interested[index] = processorInterested;
+            anyInterested     |= processorInterested;
+        }
+
+        return anyInterested;
+    }
+
+
+    public void processFieldMapping(String className,
+                                    String fieldType,
+                                    String fieldName,
+                                    String newClassName,
+                                    String newFieldName)
+    {
+        for (int index = 0; index < mappingProcessors.length; index++)
+        {
+            if (interested[index])
+            {
+                mappingProcessors[index].processFieldMapping(className,
+                                                             fieldType,
+                                                             fieldName,
+                                                             newClassName,
+                                                             newFieldName);
+            }
+        }
+    }
+
+
+    public void processMethodMapping(String className,
+                                     int    firstLineNumber,
+                                     int    lastLineNumber,
+                                     String methodReturnType,
+                                     String methodName,
+                                     String methodArguments,
+                                     String newClassName,
+                                     int    newFirstLineNumber,
+                                     int    newLastLineNumber,
+                                     String newMethodName)
+    {
+        for (int index = 0; index < mappingProcessors.length; index++)
+        {
+            if (interested[index])
+            {
+                mappingProcessors[index].processMethodMapping(className,
+                                                              firstLineNumber,
+                                                              lastLineNumber,
+                                                              methodReturnType,
+                                                              methodName,
+                                                              methodArguments,
+                                                              newClassName,
+                                                              newFirstLineNumber,
+                                                              newLastLineNumber,
+                                                              newMethodName);
+            }
+        }
+    }
+}
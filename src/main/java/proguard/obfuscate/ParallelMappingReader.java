@@ -0,0 +1,310 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.obfuscate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+
+
+/**
+ * This class parses mapping files in parallel. It splits the file into chunks
+ * at class mapping lines, parses the chunks on a fork-join pool, each into
+ * its own mapping processor, and then merges the processors, in the order of
+ * the chunks in the file.
+ *
+ * @author F43nd1r
+ */
+public class ParallelMappingReader
+{
+    private static final int MINIMUM_CHUNK_SIZE = 256 * 1024;
+    private static final int CHUNKS_PER_THREAD  = 4;
+
+    private final ByteBuffer mapping;
+
+
+    /**
+     * Creates a new ParallelMappingReader for the given mapping file, mapping
+     * it into memory.
+     */
+    public ParallelMappingReader(File mappingFile) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(mappingFile, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            long        size    = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Mapping file too large ["+mappingFile+"]");
+            }
+
+            this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Creates a new ParallelMappingReader for the mapping file in the given
+     * UTF-8 encoded buffer, from its current position up to its limit.
+     */
+    public ParallelMappingReader(ByteBuffer mapping)
+    {
+        this.mapping = mapping.slice();
+    }
+
+
+    /**
+     * Reads the mapping file on the common fork-join pool, presenting all of
+     * the encountered mapping entries to processors from the given factory.
+     * @return the merged processor.
+     */
+    public <T extends MappingProcessor> T pump(MappingProcessorFactory<T> factory) throws IOException
+    {
+        return pump(ForkJoinPool.commonPool(), factory);
+    }
+
+
+    /**
+     * Reads the mapping file on the given fork-join pool, presenting all of
+     * the encountered mapping entries to processors from the given factory.
+     * @return the merged processor.
+     */
+    public <T extends MappingProcessor> T pump(ForkJoinPool               pool,
+                                               MappingProcessorFactory<T> factory) throws IOException
+    {
+        int chunkCount = pool.getParallelism() * CHUNKS_PER_THREAD;
+        int chunkSize  = Math.max(MINIMUM_CHUNK_SIZE, mapping.limit() / chunkCount + 1);
+
+        int[] chunkOffsets = chunkOffsets(chunkSize);
+
+        try
+        {
+            return pool.invoke(new ChunkTask<T>(chunkOffsets, 0, chunkOffsets.length - 1, factory));
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+
+    /**
+     * This interface creates the mapping processors for the chunks of a
+     * mapping file, and merges them again.
+     */
+    public interface MappingProcessorFactory<T extends MappingProcessor>
+    {
+        /**
+         * Creates a new, empty processor for a chunk.
+         */
+        public T createMappingProcessor();
+
+
+        /**
+         * Merges the given processors. The entries of the second processor
+         * follow the entries of the first processor in the mapping file.
+         * @return the merged processor, which may be one of the given ones.
+         */
+        public T mergeMappingProcessors(T mappingProcessor1,
+                                        T mappingProcessor2);
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the offsets of the chunks of approximately the given size,
+     * starting at class mapping lines, followed by the length of the file.
+     */
+    private int[] chunkOffsets(int chunkSize)
+    {
+        int length = mapping.limit();
+
+        int[] offsets     = new int[length / chunkSize + 2];
+        int   offsetCount = 0;
+
+        offsets[offsetCount++] = 0;
+
+        int offset = chunkSize;
+        while (offset < length)
+        {
+            offset = nextClassMappingOffset(offset);
+            if (offset < length)
+            {
+                offsets[offsetCount++] = offset;
+            }
+
+            offset += chunkSize;
+        }
+
+        offsets[offsetCount++] = length;
+
+        int[] result = new int[offsetCount];
+        System.arraycopy(offsets, 0, result, 0, offsetCount);
+
+        return result;
+    }
+
+
+    /**
+     * Returns the offset of the first class mapping line that starts after
+     * the given offset, or the length of the file.
+     */
+    private int nextClassMappingOffset(int offset)
+    {
+        int length = mapping.limit();
+
+        // Skip to the start of the next line.
+        int lineStart = nextLineOffset(offset);
+        while (lineStart < length)
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < length && !isLineTerminator(mapping.get(lineEnd)))
+            {
+                lineEnd++;
+            }
+
+            // Is it a class mapping line, ending in a colon?
+            int trimmedStart = lineStart;
+            while (trimmedStart < lineEnd && (mapping.get(trimmedStart) & 0xff) <= ' ')
+            {
+                trimmedStart++;
+            }
+
+            int trimmedEnd = lineEnd;
+            while (trimmedEnd > trimmedStart && (mapping.get(trimmedEnd - 1) & 0xff) <= ' ')
+            {
+                trimmedEnd--;
+            }
+
+            if (trimmedEnd > trimmedStart          &&
+                mapping.get(trimmedStart)   != '#' &&
+                mapping.get(trimmedEnd - 1) == ':')
+            {
+                return lineStart;
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return length;
+    }
+
+
+    /**
+     * Returns the offset of the start of the line after the given offset.
+     */
+    private int nextLineOffset(int offset)
+    {
+        int length = mapping.limit();
+
+        // Find the end of the current line.
+        while (offset < length && !isLineTerminator(mapping.get(offset - 1)))
+        {
+            offset++;
+        }
+
+        return offset;
+    }
+
+
+    private static boolean isLineTerminator(byte b)
+    {
+        return b == '\n' || b == '\r';
+    }
+
+
+    /**
+     * This task parses a range of chunks, splitting it up if it contains more
+     * than one chunk.
+     */
+    private class ChunkTask<T extends MappingProcessor> extends RecursiveTask<T>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[]                      chunkOffsets;
+        private final int                        startChunk;
+        private final int                        endChunk;
+        private final MappingProcessorFactory<T> factory;
+
+
+        private ChunkTask(int[]                      chunkOffsets,
+                          int                        startChunk,
+                          int                        endChunk,
+                          MappingProcessorFactory<T> factory)
+        {
+            this.chunkOffsets = chunkOffsets;
+            this.startChunk   = startChunk;
+            this.endChunk     = endChunk;
+            this.factory      = factory;
+        }
+
+
+        // Implementations for RecursiveTask.
+
+        protected T compute()
+        {
+            if (endChunk - startChunk > 1)
+            {
+                // Split the range in two halves.
+                int middleChunk = (startChunk + endChunk) >>> 1;
+
+                ChunkTask<T> task1 = new ChunkTask<T>(chunkOffsets, startChunk, middleChunk, factory);
+                ChunkTask<T> task2 = new ChunkTask<T>(chunkOffsets, middleChunk, endChunk, factory);
+
+                task2.fork();
+
+                T mappingProcessor1 = task1.compute();
+                T mappingProcessor2 = task2.join();
+
+                return factory.mergeMappingProcessors(mappingProcessor1,
+                                                      mappingProcessor2);
+            }
+
+            // Parse a single chunk.
+            T mappingProcessor = factory.createMappingProcessor();
+
+            if (endChunk > startChunk)
+            {
+                ByteBuffer chunk = mapping.duplicate();
+                Buffers.position(chunk, chunkOffsets[startChunk]);
+                Buffers.limit(chunk, chunkOffsets[endChunk]);
+
+                try
+                {
+                    new MappingReader(chunk).pump(mappingProcessor);
+                }
+                catch (IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            return mappingProcessor;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * This MappingStore can also select methods by their original argument
+ * types. It compares the types as ids that it resolves once per lookup,
+ * instead of comparing the joined argument strings of all candidates.
+ *
+ * @see FrameRemapper
+ *
+ * @author F43nd1r
+ */
+public interface ArgumentMatchingMappingStore extends MappingStore
+{
+    /**
+     * Lets the given visitor visit all method mappings of the given class that
+     * have the given obfuscated method name, that contain the given
+     * obfuscated line number, and that have the given original argument
+     * types, in the order of the mapping file.
+     * @param className             the original class name.
+     * @param obfuscatedMethodName  the obfuscated method name.
+     * @param obfuscatedLineNumber  the obfuscated line number, or 0 if it is
+     *                              not known.
+     * @param originalArgumentTypes the original external argument types, as
+     *                              split at the commas of the argument
+     *                              list, so an empty list has a single
+     *                              empty type.
+     * @param visitor               the visitor that will visit the mappings.
+     */
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     String[]             originalArgumentTypes,
+                                     MemberMappingVisitor visitor);
+}
@@ -0,0 +1,178 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This MappingStore shares the parsed class members of its mapping file
+ * with the other stores of the same MappingSectionPool. When it is created,
+ * it only parses the class sections that don't have identical counterparts
+ * in the pool yet, for instance the classes that have changed since a
+ * previous version of the application. This keeps the memory footprint of
+ * many loaded versions close to the size of their differences:
+ * <pre>
+ *     MappingSectionPool pool = new MappingSectionPool();
+ *     FrameRemapper mapper1 =
+ *         new FrameRemapper(new DeduplicatedMappingStore(pool, mappingFile1));
+ *     FrameRemapper mapper2 =
+ *         new FrameRemapper(new DeduplicatedMappingStore(pool, mappingFile2));
+ * </pre>
+ * The store doesn't keep the mapping file itself. It can be shared by any
+ * number of threads.
+ *
+ * @see MappingSectionPool
+ *
+ * @author F43nd1r
+ */
+public class DeduplicatedMappingStore implements ArgumentMatchingMappingStore
+{
+    // Obfuscated class name -> original class name.
+    private final Map<String,String>           classMap;
+
+    // Original class name -> shared class members.
+    private final Map<String,HeapMappingStore> classMembers = new HashMap<String,HeapMappingStore>();
+
+    // The size of the class members that this store added to the pool.
+    private long addedSize;
+
+
+    /**
+     * Creates a new DeduplicatedMappingStore for the given mapping file,
+     * sharing its class sections with the given pool.
+     */
+    public DeduplicatedMappingStore(MappingSectionPool pool,
+                                    File               mappingFile) throws IOException
+    {
+        this(pool, MappingSections.map(mappingFile));
+    }
+
+
+    /**
+     * Creates a new DeduplicatedMappingStore for the mapping file in the given
+     * buffer, from its current position up to its limit, sharing its class
+     * sections with the given pool.
+     */
+    public DeduplicatedMappingStore(MappingSectionPool pool,
+                                    ByteBuffer         mapping)
+    {
+        MappingSections sections = new MappingSections(mapping);
+
+        this.classMap = sections.getClassMap();
+
+        for (String className : sections.getClassNames())
+        {
+            int sectionIndex = sections.sectionIndex(className);
+
+            MappingSectionPool.SectionKey key =
+                MappingSectionPool.sectionKey(className,
+                                              sections.memberSection(sectionIndex));
+
+            // Reuse the class members of an identical section, or parse
+            // and pool our own.
+            HeapMappingStore members = pool.get(key);
+            if (members == null)
+            {
+                HeapMappingStore newMembers = sections.parseSection(sectionIndex);
+
+                members = pool.putIfAbsent(key, newMembers);
+                if (members == newMembers)
+                {
+                    addedSize += HeapMappingStore.MAP_ENTRY_SIZE + members.getSize();
+                }
+            }
+
+            classMembers.put(className, members);
+        }
+    }
+
+
+    // Implementations for MappingStore.
+
+    public String getOriginalClassName(String obfuscatedClassName)
+    {
+        return classMap.get(obfuscatedClassName);
+    }
+
+
+    public void fieldMappingsAccept(String               className,
+                                    String               obfuscatedFieldName,
+                                    MemberMappingVisitor visitor)
+    {
+        HeapMappingStore members = classMembers.get(className);
+        if (members != null)
+        {
+            members.fieldMappingsAccept(className,
+                                        obfuscatedFieldName,
+                                        visitor);
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     MemberMappingVisitor visitor)
+    {
+        HeapMappingStore members = classMembers.get(className);
+        if (members != null)
+        {
+            members.methodMappingsAccept(className,
+                                         obfuscatedMethodName,
+                                         obfuscatedLineNumber,
+                                         visitor);
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     String[]             originalArgumentTypes,
+                                     MemberMappingVisitor visitor)
+    {
+        HeapMappingStore members = classMembers.get(className);
+        if (members != null)
+        {
+            members.methodMappingsAccept(className,
+                                         obfuscatedMethodName,
+                                         obfuscatedLineNumber,
+                                         originalArgumentTypes,
+                                         visitor);
+        }
+    }
+
+
+    /**
+     * Returns an estimate of the number of bytes that this store retains.
+     * The estimate only includes the class members that this store added to
+     * the pool, not the ones that it shares with stores that were created
+     * earlier.
+     */
+    public long getSize()
+    {
+        return (long)HeapMappingStore.MAP_ENTRY_SIZE * classMap.size()     +
+               (long)HeapMappingStore.MAP_ENTRY_SIZE * classMembers.size() +
+               addedSize;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class retraces the stack frames that a FramePattern finds anywhere
+ * in a text, for instance dozens of frames in a single-line JSON crash
+ * report, replacing them in place and copying the rest of the text
+ * unchanged. It reads the text through a bounded sliding window, so it
+ * handles arbitrarily long lines without ever holding them in memory as a
+ * whole.
+ * <p>
+ * Like ReTrace, the finder prints the original frames of a frame with a
+ * line number as consecutive frames, for instance the frames of inlined
+ * methods, separated by the same text that precedes the obfuscated frame,
+ * like "\n\tat " in JSON. It prints the original frames of a frame without
+ * line number as ambiguous alternatives, separated by " | ".
+ *
+ * @author F43nd1r
+ */
+public class FrameFinder
+{
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+    // The number of processed characters that stay in the window, for word
+    // boundaries and lookbehind constructs at the start of the window.
+    private static final int CONTEXT_SIZE = 16;
+
+    private static final String ALTERNATIVE_SEPARATOR = " | ";
+    private static final String LINE_SEPARATOR        = "\n";
+
+    private final FramePattern  pattern;
+    private final FrameRemapper mapper;
+    private final int           windowSize;
+
+
+    /**
+     * Creates a new FrameFinder with the default window size.
+     * @param pattern the pattern for finding and formatting the frames.
+     * @param mapper  the mapping for retracing the frames.
+     */
+    public FrameFinder(FramePattern  pattern,
+                       FrameRemapper mapper)
+    {
+        this(pattern, mapper, DEFAULT_WINDOW_SIZE);
+    }
+
+
+    /**
+     * Creates a new FrameFinder.
+     * @param pattern    the pattern for finding and formatting the frames.
+     * @param mapper     the mapping for retracing the frames.
+     * @param windowSize the number of characters that are searched at a
+     *                   time. Frames are only retraced reliably if they
+     *                   are shorter than half of this size.
+     */
+    public FrameFinder(FramePattern  pattern,
+                       FrameRemapper mapper,
+                       int           windowSize)
+    {
+        if (windowSize < 2)
+        {
+            throw new IllegalArgumentException("Invalid window size ["+windowSize+"]");
+        }
+
+        this.pattern    = pattern;
+        this.mapper     = mapper;
+        this.windowSize = windowSize;
+    }
+
+
+    /**
+     * Copies the text from the given reader to the given writer, retracing
+     * all stack frames in it.
+     */
+    public void retrace(Reader reader, Writer writer) throws IOException
+    {
+        StringBuilder window = new StringBuilder();
+        char[]        buffer = new char[Math.min(windowSize, 8192)];
+
+        // The start of the unprocessed text in the window.
+        int     index       = 0;
+        boolean end         = false;
+        boolean windowStart = true;
+
+        while (!end || index < window.length())
+        {
+            // Fill the window with unprocessed text.
+            while (!end && window.length() - index < windowSize)
+            {
+                int count = reader.read(buffer, 0, Math.min(buffer.length,
+                                                             windowSize - (window.length() - index)));
+                if (count < 0)
+                {
+                    end = true;
+                }
+                else
+                {
+                    window.append(buffer, 0, count);
+                }
+            }
+
+            // Only accept matches that end in the first half of the
+            // unprocessed text, unless it is the end of the text, since
+            // the second half may otherwise still extend them.
+            int safeEnd = end ?
+                window.length() :
+                index + windowSize / 2;
+
+            while (index < safeEnd)
+            {
+                FrameMatch match = pattern.find(window, index);
+                if (match == null)
+                {
+                    writer.append(window, index, safeEnd);
+                    index = safeEnd;
+                    break;
+                }
+
+                int matchStart = match.getOffset();
+                int matchEnd   = matchStart + match.getLine().length();
+
+                if (matchStart >= safeEnd ||
+                    matchEnd > safeEnd && matchStart > index)
+                {
+                    // Continue with the match at the start of the next
+                    // window, so it has all the text that it may need.
+                    int copyEnd = Math.min(matchStart, safeEnd);
+                    writer.append(window, index, copyEnd);
+                    index = copyEnd;
+                    break;
+                }
+
+                if (matchEnd == matchStart)
+                {
+                    // Skip an empty match.
+                    writer.append(window, index, matchStart + 1);
+                    index = matchStart + 1;
+                    continue;
+                }
+
+                writer.append(window, index, matchStart);
+                writer.write(retrace(match, window, windowStart));
+                index = matchEnd;
+            }
+
+            // Discard the processed text, except for some context.
+            int discardEnd = index - CONTEXT_SIZE;
+            if (discardEnd > 0)
+            {
+                window.delete(0, discardEnd);
+                index -= discardEnd;
+                windowStart = false;
+            }
+        }
+
+        writer.flush();
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the retraced text of the given frame, which was found in the
+     * given text, optionally at the start of the entire input.
+     */
+    private String retrace(FrameMatch   obfuscatedMatch,
+                           CharSequence text,
+                           boolean      textStart)
+    {
+        FrameInfo obfuscatedFrame = obfuscatedMatch.getFrameInfo();
+
+        List<FrameInfo> retracedFrames = mapper.transform(obfuscatedFrame);
+        if (retracedFrames == null || retracedFrames.isEmpty())
+        {
+            return obfuscatedMatch.getLine();
+        }
+
+        // Consecutive frames are all printed, but alternatives only need
+        // to be printed once.
+        boolean alternatives = obfuscatedFrame.getLineNumber() == 0;
+
+        Collection<String> retracedLines = alternatives ?
+            new LinkedHashSet<String>() :
+            new ArrayList<String>(retracedFrames.size());
+
+        for (FrameInfo retracedFrame : retracedFrames)
+        {
+            retracedLines.add(pattern.format(obfuscatedMatch, retracedFrame));
+        }
+
+        String separator = alternatives       ? ALTERNATIVE_SEPARATOR :
+                           retracedLines.size() > 1 ? separator(text, obfuscatedMatch.getOffset(), textStart) :
+                                                      null;
+
+        StringBuilder retracedText = new StringBuilder();
+        for (String retracedLine : retracedLines)
+        {
+            if (retracedText.length() > 0)
+            {
+                retracedText.append(separator);
+            }
+
+            retracedText.append(retracedLine);
+        }
+
+        return retracedText.toString();
+    }
+
+
+    /**
+     * Returns the text that precedes the frame at the given offset in the
+     * given text, for separating consecutive frames: the whitespace and
+     * escaped whitespace right before the frame, from the last line break,
+     * if any. A frame at the start of the entire input gets a line break.
+     */
+    private String separator(CharSequence text, int frameStart, boolean textStart)
+    {
+        int separatorStart = frameStart;
+        while (true)
+        {
+            if (separatorStart > 0 &&
+                Character.isWhitespace(text.charAt(separatorStart - 1)))
+            {
+                // Whitespace, possibly a line break.
+                char c = text.charAt(--separatorStart);
+                if (c == '\n' || c == '\r')
+                {
+                    return text.subSequence(separatorStart, frameStart).toString();
+                }
+            }
+            else if (separatorStart > 1 &&
+                     text.charAt(separatorStart - 2) == '\\' &&
+                     "tnr".indexOf(text.charAt(separatorStart - 1)) >= 0)
+            {
+                // An escaped whitespace character, possibly a line break.
+                separatorStart -= 2;
+                if (text.charAt(separatorStart + 1) != 't')
+                {
+                    return text.subSequence(separatorStart, frameStart).toString();
+                }
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        String separator = text.subSequence(separatorStart, frameStart).toString();
+
+        return separatorStart == 0 && textStart ? LINE_SEPARATOR + separator :
+               separator.length() == 0          ? " "                        :
+                                                  separator;
+    }
+}
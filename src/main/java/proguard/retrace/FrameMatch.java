@@ -0,0 +1,115 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * This class represents a line that matches a FramePattern. It contains the
+ * frame information of the line and the offsets at which the pattern found
+ * it, so the pattern can format the line with other frame information
+ * without matching it again.
+ *
+ * @see FramePattern#match(String)
+ * @see FramePattern#format(FrameMatch, FrameInfo)
+ *
+ * @author F43nd1r
+ */
+public class FrameMatch
+{
+    private final String    line;
+    private final int       offset;
+    private final int       templateIndex;
+    private final int[]     groups;
+    private final FrameInfo frameInfo;
+
+
+    /**
+     * Creates a new FrameMatch.
+     * @param line          the matched line.
+     * @param offset        the offset of the line in the text in which it
+     *                      was found, or 0.
+     * @param templateIndex the index of the matched regular expression of
+     *                      the pattern.
+     * @param groups        the start and end offsets of the matched groups
+     *                      of the regular expression, or -1 for groups that
+     *                      aren't matched.
+     * @param frameInfo     the frame information parsed from the groups.
+     */
+    FrameMatch(String    line,
+               int       offset,
+               int       templateIndex,
+               int[]     groups,
+               FrameInfo frameInfo)
+    {
+        this.line          = line;
+        this.offset        = offset;
+        this.templateIndex = templateIndex;
+        this.groups        = groups;
+        this.frameInfo     = frameInfo;
+    }
+
+
+    /**
+     * Returns the matched line.
+     */
+    public String getLine()
+    {
+        return line;
+    }
+
+
+    /**
+     * Returns the offset of the matched line in the text in which the
+     * pattern found it, or 0 if the pattern matched the entire line.
+     * @see FramePattern#find(CharSequence, int)
+     */
+    public int getOffset()
+    {
+        return offset;
+    }
+
+
+    /**
+     * Returns the frame information of the line.
+     */
+    public FrameInfo getFrameInfo()
+    {
+        return frameInfo;
+    }
+
+
+    /**
+     * Returns the index of the matched regular expression of the pattern.
+     */
+    int getTemplateIndex()
+    {
+        return templateIndex;
+    }
+
+
+    /**
+     * Returns the start and end offsets of the matched groups of the
+     * regular expression.
+     */
+    int[] getGroups()
+    {
+        return groups;
+    }
+}
@@ -26,7 +26,8 @@ import java.util.regex.*;
 
 /**
  * This class can parse and format lines that represent stack frames
- * matching a given regular expression.
+ * matching a given regular expression, or any of a given set of regular
+ * expressions.
  *
  * @author Eric Lafortune
  */
@@ -34,18 +35,22 @@ public class FramePattern
 {
     // The pattern matcher has problems with \\b against some unicode
     // characters, so we're no longer using \\b for classes and class members.
-    private static final String REGEX_CLASS       = "(?:[^\\s\":./()]+\\.)*[^\\s\":./()]+";
-    private static final String REGEX_CLASS_SLASH = "(?:[^\\s\":./()]+/)*[^\\s\":./()]+";
+    // The possessive quantifiers only apply where backtracking can't find
+    // any other matches, since the names can't contain the separators that
+    // follow them, and line numbers must end at a word boundary. They avoid
+    // quadratic backtracking on long names without separators.
+    private static final String REGEX_CLASS       = "(?:[^\\s\":./()]++\\.)*[^\\s\":./()]+";
+    private static final String REGEX_CLASS_SLASH = "(?:[^\\s\":./()]++/)*[^\\s\":./()]+";
     private static final String REGEX_SOURCE_FILE = "[^:()]*";
-    private static final String REGEX_LINE_NUMBER = "-?\\b\\d+\\b";
+    private static final String REGEX_LINE_NUMBER = "-?\\b\\d++\\b";
     private static final String REGEX_TYPE        = REGEX_CLASS + "(?:\\[\\])*";
     private static final String REGEX_MEMBER      = "<?[^\\s\":./()]+>?";
     private static final String REGEX_ARGUMENTS   = "(?:" + REGEX_TYPE + "(?:\\s*,\\s*" + REGEX_TYPE + ")*)?";
 
-    private final char[]   expressionTypes     = new char[32];
-    private final int      expressionTypeCount;
-    private final Pattern  pattern;
-    private final boolean  verbose;
+    private final Template[] templates;
+    private final boolean    verbose;
+    private final int        maximumLineLength;
+    private final int        matchingBudget;
 
 
     /**
@@ -53,94 +58,344 @@ public class FramePattern
      */
     public FramePattern(String regularExpression, boolean verbose)
     {
-        // Construct the regular expression.
-        StringBuffer expressionBuffer = new StringBuffer(regularExpression.length() + 32);
+        this(new String[] { regularExpression }, verbose);
+    }
+
+
+    /**
+     * Creates a new FramePattern that recognizes lines in any of the given
+     * formats. Each line is matched once: against the first regular
+     * expression that matches it, skipping the expressions whose required
+     * literal strings the line doesn't contain.
+     * @param regularExpressions the regular expressions, in order of
+     *                           priority.
+     * @param verbose            specifies whether formatted lines should
+     *                           be verbose.
+     */
+    public FramePattern(String[] regularExpressions, boolean verbose)
+    {
+        this(regularExpressions, verbose, 0, 0);
+    }
+
 
-        int expressionTypeCount = 0;
-        int index = 0;
-        while (true)
+    /**
+     * Creates a new FramePattern that recognizes lines in any of the given
+     * formats, giving up on lines that take too much time to match. Such
+     * lines are treated as lines that don't match.
+     * @param regularExpressions the regular expressions, in order of
+     *                           priority.
+     * @param verbose            specifies whether formatted lines should
+     *                           be verbose.
+     * @param maximumLineLength  the maximum length of lines that are
+     *                           matched, or 0 for any length.
+     * @param matchingBudget     the maximum number of characters that the
+     *                           regular expression matchers may read for a
+     *                           single line, or 0 for any number.
+     *                           Searches apply it differently; see
+     *                           {@link #find(CharSequence, int)}.
+     */
+    public FramePattern(String[] regularExpressions,
+                        boolean  verbose,
+                        int      maximumLineLength,
+                        int      matchingBudget)
+    {
+        this.templates = new Template[regularExpressions.length];
+        for (int index = 0; index < regularExpressions.length; index++)
         {
-            int nextIndex = regularExpression.indexOf('%', index);
-            if (nextIndex < 0                             ||
-                nextIndex == regularExpression.length()-1 ||
-                expressionTypeCount == expressionTypes.length)
+            templates[index] = new Template(regularExpressions[index]);
+        }
+
+        this.verbose           = verbose;
+        this.maximumLineLength = maximumLineLength;
+        this.matchingBudget    = matchingBudget;
+    }
+
+
+    /**
+     * Parses all frame information from a given line.
+     * @param  line a line that represents a stack frame.
+     * @return the parsed information, or null if the line doesn't match a
+     *         stack frame.
+     */
+    public FrameInfo parse(String line)
+    {
+        FrameMatch match = match(line);
+
+        return match == null ? null : match.getFrameInfo();
+    }
+
+
+    /**
+     * Matches the given line, keeping the offsets of its frame information,
+     * so it can be formatted without matching it again.
+     * @param  line a line that represents a stack frame.
+     * @return the match, with the parsed information, or null if the line
+     *         doesn't match a stack frame.
+     * @see #format(FrameMatch, FrameInfo)
+     */
+    public FrameMatch match(String line)
+    {
+        return match(line, true);
+    }
+
+
+    /**
+     * Finds the first stack frame in the given text, at or after the given
+     * offset, unlike {@link #match(String)}, which requires the entire line
+     * to represent a stack frame. The earliest match of any of the regular
+     * expressions wins. The line of the returned match is the matched part
+     * of the text, at the offset of the match.
+     * <p>
+     * The matching budget applies to each regular expression separately.
+     * If searching the text exceeds it, the matchers try the starting
+     * positions one by one instead, each with the full budget, and skip the
+     * positions that exceed it.
+     * @param  text       the text, for instance a single line with many
+     *                    stack frames.
+     * @param  startIndex the offset at which the search starts.
+     * @return the match, with the parsed information, or null if the text
+     *         doesn't contain any stack frames after the offset.
+     * @see FrameMatch#getOffset()
+     */
+    public FrameMatch find(CharSequence text, int startIndex)
+    {
+        // Find the earliest match of any of the regular expressions.
+        int     firstTemplateIndex = -1;
+        Matcher firstMatcher       = null;
+        for (int templateIndex = 0; templateIndex < templates.length; templateIndex++)
+        {
+            int endIndex = firstMatcher == null ?
+                text.length() + 1 :
+                firstMatcher.start();
+
+            Matcher matcher = find(templates[templateIndex], text, startIndex, endIndex);
+            if (matcher != null)
             {
-                break;
+                firstTemplateIndex = templateIndex;
+                firstMatcher       = matcher;
             }
+        }
 
-            // Copy a literal piece of the input line.
-            expressionBuffer.append(regularExpression.substring(index, nextIndex));
-            expressionBuffer.append('(');
+        if (firstMatcher == null)
+        {
+            return null;
+        }
 
-            char expressionType = regularExpression.charAt(nextIndex + 1);
-            switch(expressionType)
-            {
-                case 'c':
-                    expressionBuffer.append(REGEX_CLASS);
-                    break;
+        Template template = templates[firstTemplateIndex];
+        String   line     = text.subSequence(firstMatcher.start(), firstMatcher.end()).toString();
+        int[]    groups   = template.groups(firstMatcher);
 
-                case 'C':
-                    expressionBuffer.append(REGEX_CLASS_SLASH);
-                    break;
+        return new FrameMatch(line,
+                              firstMatcher.start(),
+                              firstTemplateIndex,
+                              groups,
+                              frameInfo(template, line, groups));
+    }
 
-                case 's':
-                    expressionBuffer.append(REGEX_SOURCE_FILE);
-                    break;
 
-                case 'l':
-                    expressionBuffer.append(REGEX_LINE_NUMBER);
-                    break;
+    /**
+     * Formats the given frame information based on the given template line.
+     * It is the reverse of {@link #parse(String)}, but optionally with
+     * different frame information.
+     * @param  line      a template line that represents a stack frame.
+     * @param  frameInfo information about a stack frame.
+     * @return the formatted line, or null if the line doesn't match a
+     *         stack frame.
+     */
+    public String format(String line, FrameInfo frameInfo)
+    {
+        FrameMatch match = match(line, false);
 
-                case 't':
-                    expressionBuffer.append(REGEX_TYPE);
-                    break;
+        return match == null ? null : format(match, frameInfo);
+    }
 
-                case 'f':
-                    expressionBuffer.append(REGEX_MEMBER);
-                    break;
 
-                case 'm':
-                    expressionBuffer.append(REGEX_MEMBER);
-                    break;
+    /**
+     * Formats the given frame information based on the given matched line.
+     * It is the reverse of {@link #match(String)}, but optionally with
+     * different frame information.
+     * @param  match     a matched line that represents a stack frame.
+     * @param  frameInfo information about a stack frame.
+     * @return the formatted line.
+     */
+    public String format(FrameMatch match, FrameInfo frameInfo)
+    {
+        return format(templates[match.getTemplateIndex()],
+                      match.getLine(),
+                      match.getGroups(),
+                      frameInfo);
+    }
 
-                case 'a':
-                    expressionBuffer.append(REGEX_ARGUMENTS);
-                    break;
+
+    /**
+     * Returns whether the given matched line only contains the class name of
+     * its frame information, so formatting it with the same class name
+     * doesn't change it.
+     */
+    boolean hasClassNameOnly(FrameMatch match)
+    {
+        Template template = templates[match.getTemplateIndex()];
+        String   line     = match.getLine();
+        int[]    groups   = match.getGroups();
+
+        int classNameStart  = -1;
+        int classNameLength = 0;
+        for (int expressionTypeIndex = 0; expressionTypeIndex < template.expressionTypeCount; expressionTypeIndex++)
+        {
+            int startIndex = groups[2 * expressionTypeIndex];
+            if (startIndex >= 0)
+            {
+                int length = groups[2 * expressionTypeIndex + 1] - startIndex;
+
+                if (template.expressionTypes[expressionTypeIndex] != 'c')
+                {
+                    return false;
+                }
+
+                if (classNameStart < 0)
+                {
+                    classNameStart  = startIndex;
+                    classNameLength = length;
+                }
+                else if (length != classNameLength ||
+                         !line.regionMatches(startIndex, line, classNameStart, length))
+                {
+                    return false;
+                }
             }
+        }
+
+        return classNameStart >= 0;
+    }
 
-            expressionBuffer.append(')');
 
-            expressionTypes[expressionTypeCount++] = expressionType;
+    // Small utility methods.
 
-            index = nextIndex + 2;
+    /**
+     * Finds the first match of the given template in the given text that
+     * starts in the given range of offsets, returning the matcher, or null
+     * if there isn't any such match.
+     */
+    private Matcher find(Template     template,
+                         CharSequence text,
+                         int          startIndex,
+                         int          endIndex)
+    {
+        // Count the characters that the matcher reads, if there's a budget.
+        BudgetedSequence budgetedText = matchingBudget > 0 ?
+            new BudgetedSequence(text, matchingBudget) :
+            null;
+
+        CharSequence input = budgetedText != null ?
+            budgetedText :
+            text;
+
+        // Search the entire text at once.
+        try
+        {
+            Matcher matcher = template.find(input, startIndex);
+
+            return matcher != null && matcher.start() < endIndex ?
+                matcher :
+                null;
+        }
+        catch (BudgetExceededException ex)
+        {
+            // Try the starting positions one by one.
+        }
+        catch (StackOverflowError error)
+        {
+            // The matcher recurses for repeated groups, so it can run out
+            // of stack space on long texts. Try the starting positions one
+            // by one.
         }
 
-        // Copy the last literal piece of the input line.
-        expressionBuffer.append(regularExpression.substring(index));
+        // Try each starting position with its own budget, skipping the
+        // ones that exceed it.
+        Matcher matcher = template.matcher(input);
+        for (int index = startIndex; index < endIndex && index <= text.length(); index++)
+        {
+            if (budgetedText != null)
+            {
+                budgetedText.setBudget(matchingBudget);
+            }
 
-        this.expressionTypeCount = expressionTypeCount;
-        this.pattern             = Pattern.compile(expressionBuffer.toString());
-        this.verbose             = verbose;
+            try
+            {
+                if (template.lookingAt(matcher, index))
+                {
+                    return matcher;
+                }
+            }
+            catch (BudgetExceededException ex)
+            {
+                // Skip the position.
+            }
+            catch (StackOverflowError error)
+            {
+                // Skip the position.
+            }
+        }
+
+        return null;
     }
 
 
     /**
-     * Parses all frame information from a given line.
-     * @param  line a line that represents a stack frame.
-     * @return the parsed information, or null if the line doesn't match a
-     *         stack frame.
+     * Matches the given line against the regular expressions, optionally
+     * parsing its frame information.
      */
-    public FrameInfo parse(String line)
+    private FrameMatch match(String line, boolean parse)
     {
-        // Try to match it against the regular expression.
-        Matcher matcher = pattern.matcher(line);
-
-        if (!matcher.matches())
+        // Skip lines that are too long to match in reasonable time.
+        if (maximumLineLength > 0 && line.length() > maximumLineLength)
         {
             return null;
         }
 
-        // The line matched the regular expression.
+        // Count the characters that the matchers read, if there's a budget.
+        CharSequence input = matchingBudget > 0 ?
+            new BudgetedSequence(line, matchingBudget) :
+            line;
+
+        try
+        {
+            // Try to match it against the regular expressions.
+            for (int templateIndex = 0; templateIndex < templates.length; templateIndex++)
+            {
+                Template template = templates[templateIndex];
+
+                int[] groups = template.groups(line, input);
+                if (groups != null)
+                {
+                    return new FrameMatch(line,
+                                          0,
+                                          templateIndex,
+                                          groups,
+                                          parse ? frameInfo(template, line, groups) : null);
+                }
+            }
+        }
+        catch (BudgetExceededException ex)
+        {
+            // Give up on the line.
+        }
+        catch (StackOverflowError error)
+        {
+            // The matcher recurses for repeated groups, so it can run out
+            // of stack space on long lines. Give up on the line.
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Parses the frame information from the given matched groups of the
+     * given template in the given line.
+     */
+    private FrameInfo frameInfo(Template template, String line, int[] groups)
+    {
         String className  = null;
         String sourceFile = null;
         int    lineNumber = 0;
@@ -151,14 +406,14 @@ public class FramePattern
 
         // Extract a class name, a line number, a type, and
         // arguments.
-        for (int expressionTypeIndex = 0; expressionTypeIndex < expressionTypeCount; expressionTypeIndex++)
+        for (int expressionTypeIndex = 0; expressionTypeIndex < template.expressionTypeCount; expressionTypeIndex++)
         {
-            int startIndex = matcher.start(expressionTypeIndex + 1);
+            int startIndex = groups[2 * expressionTypeIndex];
             if (startIndex >= 0)
             {
-                String match = matcher.group(expressionTypeIndex + 1);
+                String match = line.substring(startIndex, groups[2 * expressionTypeIndex + 1]);
 
-                char expressionType = expressionTypes[expressionTypeIndex];
+                char expressionType = template.expressionTypes[expressionTypeIndex];
                 switch (expressionType)
                 {
                     case 'c':
@@ -207,40 +462,26 @@ public class FramePattern
 
 
     /**
-     * Formats the given frame information based on the given template line.
-     * It is the reverse of {@link #parse(String)}, but optionally with
-     * different frame information.
-     * @param  line      a template line that represents a stack frame.
-     * @param  frameInfo information about a stack frame.
-     * @return the formatted line, or null if the line doesn't match a
-     *         stack frame.
+     * Formats the given frame information based on the given matched groups
+     * of the given template in the given line.
      */
-    public String format(String line, FrameInfo frameInfo)
+    private String format(Template template, String line, int[] groups, FrameInfo frameInfo)
     {
-        // Try to match it against the regular expression.
-        Matcher matcher = pattern.matcher(line);
-
-        if (!matcher.matches())
-        {
-            return null;
-        }
-
         StringBuffer formattedBuffer = new StringBuffer();
 
         int lineIndex = 0;
-        for (int expressionTypeIndex = 0; expressionTypeIndex < expressionTypeCount; expressionTypeIndex++)
+        for (int expressionTypeIndex = 0; expressionTypeIndex < template.expressionTypeCount; expressionTypeIndex++)
         {
-            int startIndex = matcher.start(expressionTypeIndex + 1);
+            int startIndex = groups[2 * expressionTypeIndex];
             if (startIndex >= 0)
             {
-                int    endIndex = matcher.end(expressionTypeIndex + 1);
-                String match    = matcher.group(expressionTypeIndex + 1);
+                int endIndex = groups[2 * expressionTypeIndex + 1];
 
                 // Copy a literal piece of the input line.
                 formattedBuffer.append(line.substring(lineIndex, startIndex));
 
                 // Copy a matched and translated piece of the input line.
-                char expressionType = expressionTypes[expressionTypeIndex];
+                char expressionType = template.expressionTypes[expressionTypeIndex];
                 switch (expressionType)
                 {
                     case 'c':
@@ -300,4 +541,276 @@ public class FramePattern
         // Return the formatted line.
         return formattedBuffer.toString();
     }
+
+
+    /**
+     * A single regular expression of the pattern, with the types of the
+     * frame information in its groups.
+     */
+    private static class Template
+    {
+        private final char[]     expressionTypes = new char[32];
+        private final int        expressionTypeCount;
+        private final Pattern    pattern;
+        private final LineFilter lineFilter;
+        private final boolean    scannable;
+
+
+        /**
+         * Creates a new Template.
+         */
+        private Template(String regularExpression)
+        {
+            // Construct the regular expression.
+            StringBuffer expressionBuffer = new StringBuffer(regularExpression.length() + 32);
+
+            int expressionTypeCount = 0;
+            int index = 0;
+            while (true)
+            {
+                int nextIndex = regularExpression.indexOf('%', index);
+                if (nextIndex < 0                             ||
+                    nextIndex == regularExpression.length()-1 ||
+                    expressionTypeCount == expressionTypes.length)
+                {
+                    break;
+                }
+
+                // Copy a literal piece of the input line.
+                expressionBuffer.append(regularExpression.substring(index, nextIndex));
+                expressionBuffer.append('(');
+
+                char expressionType = regularExpression.charAt(nextIndex + 1);
+                switch(expressionType)
+                {
+                    case 'c':
+                        expressionBuffer.append(REGEX_CLASS);
+                        break;
+
+                    case 'C':
+                        expressionBuffer.append(REGEX_CLASS_SLASH);
+                        break;
+
+                    case 's':
+                        expressionBuffer.append(REGEX_SOURCE_FILE);
+                        break;
+
+                    case 'l':
+                        expressionBuffer.append(REGEX_LINE_NUMBER);
+                        break;
+
+                    case 't':
+                        expressionBuffer.append(REGEX_TYPE);
+                        break;
+
+                    case 'f':
+                        expressionBuffer.append(REGEX_MEMBER);
+                        break;
+
+                    case 'm':
+                        expressionBuffer.append(REGEX_MEMBER);
+                        break;
+
+                    case 'a':
+                        expressionBuffer.append(REGEX_ARGUMENTS);
+                        break;
+                }
+
+                expressionBuffer.append(')');
+
+                expressionTypes[expressionTypeCount++] = expressionType;
+
+                index = nextIndex + 2;
+            }
+
+            // Copy the last literal piece of the input line.
+            expressionBuffer.append(regularExpression.substring(index));
+
+            this.expressionTypeCount = expressionTypeCount;
+            this.pattern             = Pattern.compile(expressionBuffer.toString());
+
+            // Lines without the required literals can't match.
+            this.lineFilter = LiteralLineFilter.forExpression(regularExpression);
+
+            // Lines of the default expression don't need the regular
+            // expression matcher.
+            this.scannable = regularExpression.equals(ReTrace.STACK_TRACE_EXPRESSION);
+        }
+
+
+        /**
+         * Matches the given line, returning the start and end offsets of the
+         * groups of the expression types, with -1 for groups that aren't
+         * matched, or null if the line doesn't match.
+         * @param line  the line.
+         * @param input the characters of the line for the regular
+         *              expression matcher.
+         */
+        public int[] groups(String line, CharSequence input)
+        {
+            if (lineFilter != null && !lineFilter.accepts(line))
+            {
+                return null;
+            }
+
+            if (scannable)
+            {
+                int[] groups = new int[2 * expressionTypeCount];
+
+                return FrameScanner.scan(line, groups) ? groups : null;
+            }
+
+            Matcher matcher = pattern.matcher(input);
+            if (!matcher.matches())
+            {
+                return null;
+            }
+
+            return groups(matcher);
+        }
+
+
+        /**
+         * Finds the first match in the given text, at or after the given
+         * offset, returning the matcher, or null if there isn't any match.
+         */
+        public Matcher find(CharSequence input, int startIndex)
+        {
+            Matcher matcher = pattern.matcher(input);
+
+            return matcher.find(startIndex) ? matcher : null;
+        }
+
+
+        /**
+         * Returns a matcher for the given text, for matching at given
+         * offsets with {@link #lookingAt(Matcher, int)}.
+         */
+        public Matcher matcher(CharSequence input)
+        {
+            Matcher matcher = pattern.matcher(input);
+
+            // Let lookbehind and boundaries see the preceding text, and
+            // don't let anchors match at the offsets, like in a search.
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+
+            return matcher;
+        }
+
+
+        /**
+         * Returns whether the given matcher matches at the given offset of
+         * its text, like a search would at that offset.
+         */
+        public boolean lookingAt(Matcher matcher, int startIndex)
+        {
+            matcher.region(startIndex, matcher.regionEnd());
+
+            return matcher.lookingAt();
+        }
+
+
+        /**
+         * Returns the start and end offsets of the groups of the expression
+         * types in the last match of the given matcher, relative to the
+         * start of the match, with -1 for groups that aren't matched.
+         */
+        public int[] groups(Matcher matcher)
+        {
+            int matchStart = matcher.start();
+
+            int[] groups = new int[2 * expressionTypeCount];
+            for (int expressionTypeIndex = 0; expressionTypeIndex < expressionTypeCount; expressionTypeIndex++)
+            {
+                int startIndex = matcher.start(expressionTypeIndex + 1);
+                if (startIndex >= 0)
+                {
+                    groups[2 * expressionTypeIndex]     = startIndex - matchStart;
+                    groups[2 * expressionTypeIndex + 1] = matcher.end(expressionTypeIndex + 1) - matchStart;
+                }
+                else
+                {
+                    groups[2 * expressionTypeIndex]     = -1;
+                    groups[2 * expressionTypeIndex + 1] = -1;
+                }
+            }
+
+            return groups;
+        }
+    }
+
+
+    /**
+     * The characters of a line, which throw a BudgetExceededException when
+     * they have been read more often than a given number of times.
+     */
+    private static class BudgetedSequence implements CharSequence
+    {
+        private final CharSequence line;
+        private int                remainingBudget;
+
+
+        private BudgetedSequence(CharSequence line, int budget)
+        {
+            this.line            = line;
+            this.remainingBudget = budget;
+        }
+
+
+        /**
+         * Sets the number of characters that can still be read.
+         */
+        public void setBudget(int budget)
+        {
+            this.remainingBudget = budget;
+        }
+
+
+        // Implementations for CharSequence.
+
+        public int length()
+        {
+            return line.length();
+        }
+
+
+        public char charAt(int index)
+        {
+            if (--remainingBudget < 0)
+            {
+                throw new BudgetExceededException();
+            }
+
+            return line.charAt(index);
+        }
+
+
+        public CharSequence subSequence(int start, int end)
+        {
+            return line.subSequence(start, end);
+        }
+
+
+        public String toString()
+        {
+            return line.toString();
+        }
+    }
+
+
+    /**
+     * Signals that matching a line has exceeded its budget.
+     */
+    private static class BudgetExceededException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+
+        private BudgetExceededException()
+        {
+            // We don't need a stack trace.
+            super(null, null, false, false);
+        }
+    }
 }
@@ -27,17 +27,102 @@ import java.util.*;
 /**
  * This class accumulates mapping information and then transforms stack frames
  * accordingly.
+ * <p>
+ * By default, the mapping information is accumulated on the heap. A remapper
+ * can also look up its information in a given, read-only MappingStore, such
+ * as a compiled MappingIndex.
+ * <p>
+ * A remapper that accumulates mapping information acts as a builder:
+ * once the mapping has been read, {@link #freeze()} returns a read-only
+ * remapper with the same information. A frozen remapper is immutable and
+ * only refers to its state through final fields, so it is published safely
+ * even through a data race, and any number of threads can transform frames
+ * with it concurrently, without locking.
  *
  * @author Eric Lafortune
  */
 public class FrameRemapper implements MappingProcessor
 {
-    // Obfuscated class name -> original class name.
-    private final Map<String,String>                      classMap       = new HashMap<String,String>();
+    private final MappingStore     mappingStore;
+    private final MappingProcessor mappingBuilder;
 
-    // Original class name -> obfuscated member name -> member info set.
-    private final Map<String,Map<String,Set<FieldInfo>>>  classFieldMap  = new HashMap<String,Map<String,Set<FieldInfo>>>();
-    private final Map<String,Map<String,Set<MethodInfo>>> classMethodMap = new HashMap<String,Map<String,Set<MethodInfo>>>();
+
+    /**
+     * Creates a new FrameRemapper that accumulates mapping information on
+     * the heap.
+     */
+    public FrameRemapper()
+    {
+        this(new HeapMappingStore());
+    }
+
+
+    /**
+     * Creates a new FrameRemapper that looks up its mapping information in
+     * the given store. If the store is a MappingProcessor, the remapper
+     * passes any mapping information that it receives on to the store.
+     */
+    public FrameRemapper(MappingStore mappingStore)
+    {
+        this(mappingStore,
+             mappingStore instanceof MappingProcessor ?
+                 (MappingProcessor)mappingStore :
+                 null);
+    }
+
+
+    /**
+     * Creates a new FrameRemapper that looks up its mapping information in
+     * the given store and that passes any mapping information that it
+     * receives on to the given processor, if any.
+     */
+    private FrameRemapper(MappingStore     mappingStore,
+                          MappingProcessor mappingBuilder)
+    {
+        this.mappingStore   = mappingStore;
+        this.mappingBuilder = mappingBuilder;
+    }
+
+
+    /**
+     * Returns a read-only remapper with the mapping information that this
+     * remapper has accumulated, preparing the store for lookups if necessary.
+     * Afterwards, neither remapper accepts any further mapping information.
+     * The returned remapper can be shared by any number of threads.
+     * @return the frozen remapper, or this remapper if it is already
+     *         read-only.
+     */
+    public FrameRemapper freeze()
+    {
+        if (mappingStore instanceof HeapMappingStore)
+        {
+            ((HeapMappingStore)mappingStore).freeze();
+        }
+
+        return mappingBuilder == null ?
+            this :
+            new FrameRemapper(mappingStore, null);
+    }
+
+
+    /**
+     * Returns whether this remapper is read-only, for instance because it
+     * has been frozen.
+     */
+    public boolean isFrozen()
+    {
+        return mappingBuilder == null;
+    }
+
+
+    /**
+     * Returns the store in which this remapper looks up its mapping
+     * information.
+     */
+    public MappingStore getMappingStore()
+    {
+        return mappingStore;
+    }
 
 
     /**
@@ -91,36 +176,15 @@ public class FrameRemapper implements MappingProcessor
             String          originalClassName,
             List<FrameInfo> originalFieldFrames)
     {
-        // Class name -> obfuscated field names.
-        Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(originalClassName);
-        if (fieldMap != null)
+        String obfuscatedFieldName = obfuscatedFrame.getFieldName();
+        if (obfuscatedFieldName != null)
         {
-            // Obfuscated field names -> fields.
-            String obfuscatedFieldName = obfuscatedFrame.getFieldName();
-            Set<FieldInfo> fieldSet = fieldMap.get(obfuscatedFieldName);
-            if (fieldSet != null)
-            {
-                String obfuscatedType = obfuscatedFrame.getType();
-                String originalType   = obfuscatedType == null ? null :
-                        originalType(obfuscatedType);
-
-                // Find all matching fields.
-                Iterator<FieldInfo> fieldInfoIterator = fieldSet.iterator();
-                while (fieldInfoIterator.hasNext())
-                {
-                    FieldInfo fieldInfo = fieldInfoIterator.next();
-                    if (fieldInfo.matches(originalType))
-                    {
-                        originalFieldFrames.add(new FrameInfo(fieldInfo.originalClassName,
-                                sourceFileName(fieldInfo.originalClassName),
-                                obfuscatedFrame.getLineNumber(),
-                                fieldInfo.originalType,
-                                fieldInfo.originalName,
-                                obfuscatedFrame.getMethodName(),
-                                obfuscatedFrame.getArguments()));
-                    }
-                }
-            }
+            // Find all matching fields.
+            mappingStore.fieldMappingsAccept(originalClassName,
+                    obfuscatedFieldName,
+                    new FrameCollector(obfuscatedFrame,
+                            originalFieldFrames,
+                            true));
         }
     }
 
@@ -136,58 +200,32 @@ public class FrameRemapper implements MappingProcessor
             String          originalClassName,
             List<FrameInfo> originalMethodFrames)
     {
-        // Class name -> obfuscated method names.
-        Map<String,Set<MethodInfo>> methodMap = classMethodMap.get(originalClassName);
-        if (methodMap != null)
+        String obfuscatedMethodName = obfuscatedFrame.getMethodName();
+        if (obfuscatedMethodName != null)
         {
-            // Obfuscated method names -> methods.
-            String obfuscatedMethodName = obfuscatedFrame.getMethodName();
-            Set<MethodInfo> methodSet = methodMap.get(obfuscatedMethodName);
-            if (methodSet != null)
+            String obfuscatedArguments = obfuscatedFrame.getArguments();
+            if (obfuscatedArguments != null &&
+                mappingStore instanceof ArgumentMatchingMappingStore)
+            {
+                // Find all matching methods, letting the store match the
+                // arguments.
+                ((ArgumentMatchingMappingStore)mappingStore).methodMappingsAccept(originalClassName,
+                        obfuscatedMethodName,
+                        obfuscatedFrame.getLineNumber(),
+                        originalArgumentTypes(obfuscatedArguments),
+                        new FrameCollector(obfuscatedFrame,
+                                originalMethodFrames,
+                                false));
+            }
+            else
             {
-                int obfuscatedLineNumber = obfuscatedFrame.getLineNumber();
-
-                String obfuscatedType = obfuscatedFrame.getType();
-                String originalType   = obfuscatedType == null ? null :
-                        originalType(obfuscatedType);
-
-                String obfuscatedArguments = obfuscatedFrame.getArguments();
-                String originalArguments   = obfuscatedArguments == null ? null :
-                        originalArguments(obfuscatedArguments);
-
                 // Find all matching methods.
-                Iterator<MethodInfo> methodInfoIterator = methodSet.iterator();
-                while (methodInfoIterator.hasNext())
-                {
-                    MethodInfo methodInfo = methodInfoIterator.next();
-                    if (methodInfo.matches(obfuscatedLineNumber,
-                            originalType,
-                            originalArguments))
-                    {
-                        // Do we have a different original first line number?
-                        // We're allowing unknown values, represented as 0.
-                        int lineNumber = obfuscatedFrame.getLineNumber();
-                        if (methodInfo.originalFirstLineNumber != methodInfo.obfuscatedFirstLineNumber)
-                        {
-                            // Do we have an original line number range and
-                            // sufficient information to shift the line number?
-                            lineNumber = methodInfo.originalLastLineNumber    != 0                                  &&
-                                         methodInfo.originalLastLineNumber    != methodInfo.originalFirstLineNumber &&
-                                         methodInfo.obfuscatedFirstLineNumber != 0                                  &&
-                                         lineNumber                           != 0 ?
-                                    methodInfo.originalFirstLineNumber - methodInfo.obfuscatedFirstLineNumber + lineNumber :
-                                    methodInfo.originalFirstLineNumber;
-                        }
-
-                        originalMethodFrames.add(new FrameInfo(methodInfo.originalClassName,
-                                sourceFileName(methodInfo.originalClassName),
-                                lineNumber,
-                                methodInfo.originalType,
-                                obfuscatedFrame.getFieldName(),
-                                methodInfo.originalName,
-                                methodInfo.originalArguments));
-                    }
-                }
+                mappingStore.methodMappingsAccept(originalClassName,
+                        obfuscatedMethodName,
+                        obfuscatedFrame.getLineNumber(),
+                        new FrameCollector(obfuscatedFrame,
+                                originalMethodFrames,
+                                true));
             }
         }
     }
@@ -198,25 +236,48 @@ public class FrameRemapper implements MappingProcessor
      */
     private String originalArguments(String obfuscatedArguments)
     {
-        StringBuilder originalArguments = new StringBuilder();
+        String[] originalArgumentTypes = originalArgumentTypes(obfuscatedArguments);
 
-        int startIndex = 0;
-        while (true)
+        StringBuilder originalArguments = new StringBuilder(originalArgumentTypes[0]);
+        for (int index = 1; index < originalArgumentTypes.length; index++)
         {
-            int endIndex = obfuscatedArguments.indexOf(',', startIndex);
-            if (endIndex < 0)
+            originalArguments.append(',').append(originalArgumentTypes[index]);
+        }
+
+        return originalArguments.toString();
+    }
+
+
+    /**
+     * Returns the original types of the given comma-separated argument
+     * types. An empty list has a single empty type.
+     */
+    private String[] originalArgumentTypes(String obfuscatedArguments)
+    {
+        int count = 1;
+        for (int index = 0; index < obfuscatedArguments.length(); index++)
+        {
+            if (obfuscatedArguments.charAt(index) == ',')
             {
-                break;
+                count++;
             }
+        }
+
+        String[] originalArgumentTypes = new String[count];
+
+        int startIndex = 0;
+        for (int index = 0; index < count - 1; index++)
+        {
+            int endIndex = obfuscatedArguments.indexOf(',', startIndex);
 
-            originalArguments.append(originalType(obfuscatedArguments.substring(startIndex, endIndex).trim())).append(',');
+            originalArgumentTypes[index] = originalType(obfuscatedArguments.substring(startIndex, endIndex).trim());
 
             startIndex = endIndex + 1;
         }
 
-        originalArguments.append(originalType(obfuscatedArguments.substring(startIndex).trim()));
+        originalArgumentTypes[count - 1] = originalType(obfuscatedArguments.substring(startIndex).trim());
 
-        return originalArguments.toString();
+        return originalArgumentTypes;
     }
 
 
@@ -238,7 +299,7 @@ public class FrameRemapper implements MappingProcessor
      */
     private String originalClassName(String obfuscatedClassName)
     {
-        String originalClassName = classMap.get(obfuscatedClassName);
+        String originalClassName = mappingStore.getOriginalClassName(obfuscatedClassName);
 
         return originalClassName != null ?
                 originalClassName :
@@ -262,15 +323,114 @@ public class FrameRemapper implements MappingProcessor
     }
 
 
+    /**
+     * This MemberMappingVisitor collects the original frames of the visited
+     * members that match the type and arguments of an obfuscated frame.
+     */
+    private class FrameCollector implements MemberMappingVisitor
+    {
+        private final FrameInfo       obfuscatedFrame;
+        private final List<FrameInfo> originalFrames;
+        private final boolean         matchArguments;
+
+        // The original type and arguments, translated when they are first
+        // needed.
+        private boolean translated;
+        private String  originalType;
+        private String  originalArguments;
+
+
+        /**
+         * Creates a new FrameCollector.
+         * @param obfuscatedFrame the obfuscated frame.
+         * @param originalFrames  the list in which original frames are
+         *                        collected.
+         * @param matchArguments  specifies whether the collector still has
+         *                        to match the arguments, or whether the
+         *                        mapping store has already done so.
+         */
+        private FrameCollector(FrameInfo       obfuscatedFrame,
+                List<FrameInfo> originalFrames,
+                boolean         matchArguments)
+        {
+            this.obfuscatedFrame = obfuscatedFrame;
+            this.originalFrames  = originalFrames;
+            this.matchArguments  = matchArguments;
+        }
+
+
+        // Implementations for MemberMappingVisitor.
+
+        public void visitFieldMapping(String originalClassName,
+                String originalType,
+                String originalName)
+        {
+            translate();
+
+            if (this.originalType == null || this.originalType.equals(originalType))
+            {
+                originalFrames.add(new FrameInfo(originalClassName,
+                        sourceFileName(originalClassName),
+                        obfuscatedFrame.getLineNumber(),
+                        originalType,
+                        originalName,
+                        obfuscatedFrame.getMethodName(),
+                        obfuscatedFrame.getArguments()));
+            }
+        }
+
+
+        public void visitMethodMapping(String originalClassName,
+                int    originalLineNumber,
+                String originalType,
+                String originalName,
+                String originalArguments)
+        {
+            translate();
+
+            if ((this.originalType      == null || this.originalType.equals(originalType)) &&
+                (this.originalArguments == null || this.originalArguments.equals(originalArguments)))
+            {
+                originalFrames.add(new FrameInfo(originalClassName,
+                        sourceFileName(originalClassName),
+                        originalLineNumber,
+                        originalType,
+                        obfuscatedFrame.getFieldName(),
+                        originalName,
+                        originalArguments));
+            }
+        }
+
+
+        /**
+         * Translates the type and arguments of the obfuscated frame, if that
+         * hasn't been done yet.
+         */
+        private void translate()
+        {
+            if (!translated)
+            {
+                String obfuscatedType      = obfuscatedFrame.getType();
+                String obfuscatedArguments = obfuscatedFrame.getArguments();
+
+                originalType      = obfuscatedType == null ? null :
+                        originalType(obfuscatedType);
+                originalArguments = obfuscatedArguments == null || !matchArguments ? null :
+                        originalArguments(obfuscatedArguments);
+
+                translated = true;
+            }
+        }
+    }
+
+
     // Implementations for MappingProcessor.
 
     public boolean processClassMapping(String className,
             String newClassName)
     {
-        // Obfuscated class name -> original class name.
-        classMap.put(newClassName, className);
-
-        return true;
+        return mappingBuilder().processClassMapping(className,
+                newClassName);
     }
 
 
@@ -280,26 +440,11 @@ public class FrameRemapper implements MappingProcessor
             String newClassName,
             String newFieldName)
     {
-        // Obfuscated class name -> obfuscated field names.
-        Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(newClassName);
-        if (fieldMap == null)
-        {
-            fieldMap = new HashMap<String,Set<FieldInfo>>();
-            classFieldMap.put(newClassName, fieldMap);
-        }
-
-        // Obfuscated field name -> fields.
-        Set<FieldInfo> fieldSet = fieldMap.get(newFieldName);
-        if (fieldSet == null)
-        {
-            fieldSet = new LinkedHashSet<FieldInfo>();
-            fieldMap.put(newFieldName, fieldSet);
-        }
-
-        // Add the field information.
-        fieldSet.add(new FieldInfo(className,
+        mappingBuilder().processFieldMapping(className,
                 fieldType,
-                fieldName));
+                fieldName,
+                newClassName,
+                newFieldName);
     }
 
 
@@ -314,123 +459,31 @@ public class FrameRemapper implements MappingProcessor
             int    newLastLineNumber,
             String newMethodName)
     {
-        // Original class name -> obfuscated method names.
-        Map<String,Set<MethodInfo>> methodMap = classMethodMap.get(newClassName);
-        if (methodMap == null)
-        {
-            methodMap = new HashMap<String,Set<MethodInfo>>();
-            classMethodMap.put(newClassName, methodMap);
-        }
-
-        // Obfuscated method name -> methods.
-        Set<MethodInfo> methodSet = methodMap.get(newMethodName);
-        if (methodSet == null)
-        {
-            methodSet = new LinkedHashSet<MethodInfo>();
-            methodMap.put(newMethodName, methodSet);
-        }
-
-        // Add the method information.
-        methodSet.add(new MethodInfo(newFirstLineNumber,
-                newLastLineNumber,
-                className,
+        mappingBuilder().processMethodMapping(className,
                 firstLineNumber,
                 lastLineNumber,
                 methodReturnType,
                 methodName,
-                methodArguments));
+                methodArguments,
+                newClassName,
+                newFirstLineNumber,
+                newLastLineNumber,
+                newMethodName);
     }
 
 
-    /**
-     * Information about the original version and the obfuscated version of
-     * a field (without the obfuscated class name or field name).
-     */
-    private static class FieldInfo
-    {
-        private final String originalClassName;
-        private final String originalType;
-        private final String originalName;
-
-
-        /**
-         * Creates a new FieldInfo with the given properties.
-         */
-        private FieldInfo(String originalClassName,
-                String originalType,
-                String originalName)
-        {
-            this.originalClassName = originalClassName;
-            this.originalType      = originalType;
-            this.originalName      = originalName;
-        }
-
-
-        /**
-         * Returns whether the given type matches the original type of this field.
-         * The given type may be a null wildcard.
-         */
-        private boolean matches(String originalType)
-        {
-            return
-                    originalType == null || originalType.equals(this.originalType);
-        }
-    }
-
+    // Small utility methods.
 
     /**
-     * Information about the original version and the obfuscated version of
-     * a method (without the obfuscated class name or method name).
+     * Returns the processor that accumulates the mapping information.
      */
-    private static class MethodInfo
+    private MappingProcessor mappingBuilder()
     {
-        private final int    obfuscatedFirstLineNumber;
-        private final int    obfuscatedLastLineNumber;
-        private final String originalClassName;
-        private final int    originalFirstLineNumber;
-        private final int    originalLastLineNumber;
-        private final String originalType;
-        private final String originalName;
-        private final String originalArguments;
-
-
-        /**
-         * Creates a new MethodInfo with the given properties.
-         */
-        private MethodInfo(int    obfuscatedFirstLineNumber,
-                int    obfuscatedLastLineNumber,
-                String originalClassName,
-                int    originalFirstLineNumber,
-                int    originalLastLineNumber,
-                String originalType,
-                String originalName,
-                String originalArguments)
+        if (mappingBuilder == null)
         {
-            this.obfuscatedFirstLineNumber = obfuscatedFirstLineNumber;
-            this.obfuscatedLastLineNumber  = obfuscatedLastLineNumber;
-            this.originalType              = originalType;
-            this.originalArguments         = originalArguments;
-            this.originalClassName         = originalClassName;
-            this.originalName              = originalName;
-            this.originalFirstLineNumber   = originalFirstLineNumber;
-            this.originalLastLineNumber    = originalLastLineNumber;
+            throw new UnsupportedOperationException("The mapping store of this remapper is read-only");
         }
 
-
-        /**
-         * Returns whether the given properties match the properties of this
-         * method. The given properties may be null wildcards.
-         */
-        private boolean matches(int    obfuscatedLineNumber,
-                String originalType,
-                String originalArguments)
-        {
-            return
-                    (obfuscatedLineNumber == 0 ? obfuscatedLastLineNumber == 0 :
-                             obfuscatedFirstLineNumber <= obfuscatedLineNumber && obfuscatedLineNumber <= obfuscatedLastLineNumber) &&
-                    (originalType         == null || originalType.equals(this.originalType))                                    &&
-                    (originalArguments    == null || originalArguments.equals(this.originalArguments));
-        }
+        return mappingBuilder;
     }
 }
-
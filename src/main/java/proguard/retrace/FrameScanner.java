@@ -0,0 +1,491 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.regex.*;
+
+/**
+ * This class parses lines with the default stack trace expression of
+ * ReTrace, without regular expressions. It recognizes the same lines and
+ * extracts the same groups as the compiled expression:
+ * <pre>
+ *     (?:.*?\bat\s+%c\.%m\s*\(%s(?::%l)?\)\s*(?:~\[.*\])?)|(?:(?:.*?[:"]\s+)?%c(?::.*)?)
+ * </pre>
+ * The expression has a single way to match a line from any given starting
+ * point, so the scanner only has to try the same starting points, in the
+ * same order as the backtracking matcher, and check each of them in linear
+ * time. Word boundaries before non-ASCII characters are left to
+ * java.util.regex, whose semantics depend on the runtime.
+ *
+ * @see ReTrace#STACK_TRACE_EXPRESSION
+ *
+ * @author F43nd1r
+ */
+class FrameScanner
+{
+    // The number of groups of the expression: %c, %m, %s, %l, and %c.
+    static final int GROUP_COUNT = 5;
+
+    // A marker for offsets that haven't been computed yet.
+    private static final int UNKNOWN = -2;
+
+    // A word boundary, for the cases that depend on the runtime.
+    private static final Pattern WORD_BOUNDARY = Pattern.compile("\\b");
+
+    // Whether ASCII characters can be part of class names and member names,
+    // like [^\s":./()] in FramePattern#REGEX_CLASS. All other characters can.
+    private static final boolean[] NAME_CHARACTERS = new boolean[128];
+
+    static
+    {
+        for (char c = 0; c < NAME_CHARACTERS.length; c++)
+        {
+            NAME_CHARACTERS[c] = !isWhitespace(c) && "\":./()".indexOf(c) < 0;
+        }
+    }
+
+
+    /**
+     * Parses the given line, filling out the start and end offsets of the
+     * groups that it matches, like Matcher#start and Matcher#end, or -1 for
+     * groups that it doesn't match.
+     * @param line   the line.
+     * @param groups the array for the offsets of the groups: the start and
+     *               the end of the first group, of the second group, etc.
+     * @return whether the line matches the expression.
+     */
+    static boolean scan(String line, int[] groups)
+    {
+        for (int index = 0; index < 2 * GROUP_COUNT; index++)
+        {
+            groups[index] = -1;
+        }
+
+        return scanFrame(line, groups) ||
+               scanClassName(line, groups);
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Parses a stack frame with the first alternative:
+     * <pre>
+     *     .*?\bat\s+%c\.%m\s*\(%s(?::%l)?\)\s*(?:~\[.*\])?
+     * </pre>
+     */
+    private static boolean scanFrame(String line, int[] groups)
+    {
+        int length = line.length();
+
+        // The offset of the last line terminator, once we need it.
+        int lastTerminatorIndex = UNKNOWN;
+
+        for (int atIndex = line.indexOf("at");
+             atIndex >= 0;
+             atIndex = line.indexOf("at", atIndex + 1))
+        {
+            // \bat\s+
+            if (atIndex > 0 && isWordBefore(line, atIndex))
+            {
+                continue;
+            }
+
+            int classStart = skipWhitespace(line, atIndex + 2);
+            if (classStart == atIndex + 2)
+            {
+                continue;
+            }
+
+            // %c\.%m: a dotted name with at least two parts, the last one
+            // being the method name.
+            int methodStart = -1;
+            int methodEnd   = classStart;
+            while (true)
+            {
+                int partEnd = skipName(line, methodEnd);
+                if (partEnd == methodEnd)
+                {
+                    // An empty part.
+                    methodStart = -1;
+                    break;
+                }
+
+                if (partEnd < length && line.charAt(partEnd) == '.')
+                {
+                    methodStart = partEnd + 1;
+                    methodEnd   = partEnd + 1;
+                }
+                else
+                {
+                    methodEnd = partEnd;
+                    break;
+                }
+            }
+
+            if (methodStart < 0)
+            {
+                continue;
+            }
+
+            // \s*\(%s
+            int index = skipWhitespace(line, methodEnd);
+            if (index >= length || line.charAt(index) != '(')
+            {
+                continue;
+            }
+
+            int sourceStart = index + 1;
+            int sourceEnd   = sourceStart;
+            while (sourceEnd < length && ":()".indexOf(line.charAt(sourceEnd)) < 0)
+            {
+                sourceEnd++;
+            }
+
+            // (?::%l)?\)
+            int lineNumberStart = -1;
+            int lineNumberEnd   = -1;
+            index = sourceEnd;
+            if (index < length && line.charAt(index) == ':')
+            {
+                lineNumberStart = index + 1;
+                lineNumberEnd   = lineNumberStart;
+                if (lineNumberEnd < length && line.charAt(lineNumberEnd) == '-')
+                {
+                    lineNumberEnd++;
+                }
+
+                int digitsStart = lineNumberEnd;
+                while (lineNumberEnd < length && isDigit(line.charAt(lineNumberEnd)))
+                {
+                    lineNumberEnd++;
+                }
+
+                if (lineNumberEnd == digitsStart)
+                {
+                    continue;
+                }
+
+                index = lineNumberEnd;
+            }
+
+            if (index >= length || line.charAt(index) != ')')
+            {
+                continue;
+            }
+
+            // \s*(?:~\[.*\])?
+            index = skipWhitespace(line, index + 1);
+            if (index < length)
+            {
+                if (line.charAt(index)      != '~' ||
+                    index + 2               >= length ||
+                    line.charAt(index + 1)  != '[' ||
+                    line.charAt(length - 1) != ']')
+                {
+                    continue;
+                }
+
+                if (lastTerminatorIndex == UNKNOWN)
+                {
+                    lastTerminatorIndex = lastIndexOfLineTerminator(line);
+                }
+
+                if (lastTerminatorIndex >= index + 2)
+                {
+                    continue;
+                }
+            }
+
+            // The reluctant prefix can't extend past a line terminator, and
+            // neither can the prefixes of any later candidates.
+            if (indexOfLineTerminator(line, 0, atIndex) < atIndex)
+            {
+                return false;
+            }
+
+            groups[0] = classStart;
+            groups[1] = methodStart - 1;
+            groups[2] = methodStart;
+            groups[3] = methodEnd;
+            groups[4] = sourceStart;
+            groups[5] = sourceEnd;
+            groups[6] = lineNumberStart;
+            groups[7] = lineNumberEnd;
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Parses a class name with the second alternative:
+     * <pre>
+     *     (?:.*?[:"]\s+)?%c(?::.*)?
+     * </pre>
+     */
+    private static boolean scanClassName(String line, int[] groups)
+    {
+        // Try the optional prefix first, at every colon or quote.
+        int colonIndex = line.indexOf(':');
+        int quoteIndex = line.indexOf('"');
+        int prefixEnd  = 0;
+
+        // The offset of the last line terminator, once we need it.
+        int lastTerminatorIndex = UNKNOWN;
+
+        while (colonIndex >= 0 || quoteIndex >= 0)
+        {
+            int index;
+            if (quoteIndex < 0 || colonIndex >= 0 && colonIndex < quoteIndex)
+            {
+                index      = colonIndex;
+                colonIndex = line.indexOf(':', index + 1);
+            }
+            else
+            {
+                index      = quoteIndex;
+                quoteIndex = line.indexOf('"', index + 1);
+            }
+
+            int classStart = skipWhitespace(line, index + 1);
+            if (classStart > index + 1)
+            {
+                // The reluctant prefix can't extend past a line terminator.
+                prefixEnd = indexOfLineTerminator(line, prefixEnd, index);
+                if (prefixEnd < index)
+                {
+                    break;
+                }
+
+                int classEnd = classNameEnd(line, classStart);
+                if (classEnd >= 0)
+                {
+                    // (?::.*)?
+                    if (classEnd < line.length() &&
+                        lastTerminatorIndex == UNKNOWN)
+                    {
+                        lastTerminatorIndex = lastIndexOfLineTerminator(line);
+                    }
+
+                    if (isClassNameEnd(line, classEnd, lastTerminatorIndex))
+                    {
+                        groups[8] = classStart;
+                        groups[9] = classEnd;
+
+                        return true;
+                    }
+                }
+            }
+        }
+
+        // Try the class name without prefix.
+        int classEnd = classNameEnd(line, 0);
+        if (classEnd >= 0)
+        {
+            if (classEnd < line.length() &&
+                lastTerminatorIndex == UNKNOWN)
+            {
+                lastTerminatorIndex = lastIndexOfLineTerminator(line);
+            }
+
+            if (isClassNameEnd(line, classEnd, lastTerminatorIndex))
+            {
+                groups[8] = 0;
+                groups[9] = classEnd;
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the end offset of the dotted class name at the given offset,
+     * or -1 if there isn't a valid one, like %c.
+     */
+    private static int classNameEnd(String line, int classStart)
+    {
+        int length = line.length();
+
+        int classEnd = classStart;
+        while (true)
+        {
+            int partEnd = skipName(line, classEnd);
+            if (partEnd == classEnd)
+            {
+                // An empty part.
+                return -1;
+            }
+
+            if (partEnd < length && line.charAt(partEnd) == '.')
+            {
+                classEnd = partEnd + 1;
+            }
+            else
+            {
+                return partEnd;
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether a class name can end at the given offset: at the end
+     * of the line or at a colon that starts the rest of the line, like
+     * (?::.*)? at the end of the expression.
+     */
+    private static boolean isClassNameEnd(String line, int classEnd, int lastTerminatorIndex)
+    {
+        return classEnd == line.length() ||
+               line.charAt(classEnd) == ':' &&
+               lastTerminatorIndex < classEnd + 1;
+    }
+
+
+    /**
+     * Returns the offset of the first character at or after the given offset
+     * that isn't part of a name.
+     */
+    private static int skipName(String line, int index)
+    {
+        int length = line.length();
+        while (index < length)
+        {
+            char c = line.charAt(index);
+            if (c < NAME_CHARACTERS.length && !NAME_CHARACTERS[c])
+            {
+                break;
+            }
+
+            index++;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Returns the offset of the first character at or after the given offset
+     * that isn't whitespace, like \s.
+     */
+    private static int skipWhitespace(String line, int index)
+    {
+        int length = line.length();
+        while (index < length && isWhitespace(line.charAt(index)))
+        {
+            index++;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Returns the offset of the last line terminator, or -1 if there isn't
+     * any.
+     */
+    private static int lastIndexOfLineTerminator(String line)
+    {
+        int index = line.length() - 1;
+        while (index >= 0 && !isLineTerminator(line.charAt(index)))
+        {
+            index--;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Returns the offset of the first line terminator between the given
+     * offsets, or the end offset. Line terminators are the characters that
+     * . doesn't match.
+     */
+    private static int indexOfLineTerminator(String line, int index, int end)
+    {
+        while (index < end && !isLineTerminator(line.charAt(index)))
+        {
+            index++;
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Returns whether the character before the given offset is a word
+     * character, in the same way as the \b boundary of java.util.regex.
+     */
+    private static boolean isWordBefore(String line, int index)
+    {
+        char c = line.charAt(index - 1);
+        if (c < 128)
+        {
+            return c == '_'             ||
+                   c >= 'a' && c <= 'z' ||
+                   c >= 'A' && c <= 'Z' ||
+                   isDigit(c);
+        }
+
+        // Let java.util.regex decide for other characters, since the
+        // runtimes differ: as of Java 19, \b only considers ASCII
+        // characters to be word characters, and non-spacing marks depend on
+        // their base characters. The next character is always the 'a' of
+        // "at", a word character.
+        Matcher matcher = WORD_BOUNDARY.matcher(line);
+        matcher.useTransparentBounds(true);
+        matcher.region(index, index);
+
+        return !matcher.lookingAt();
+    }
+
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+
+    private static boolean isLineTerminator(char c)
+    {
+        return c == '\n'     ||
+               c == '\r'     ||
+               c == '\u0085' ||
+               c == '\u2028' ||
+               c == '\u2029';
+    }
+
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' '  ||
+               c == '\t' ||
+               c == '\n' ||
+               c == 0x0B ||
+               c == '\f' ||
+               c == '\r';
+    }
+}
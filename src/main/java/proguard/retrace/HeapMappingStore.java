@@ -0,0 +1,1008 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.MappingProcessor;
+
+import java.util.*;
+
+/**
+ * This MappingStore accumulates mapping information in hash maps on the heap.
+ * All names are interned in a symbol table, so each distinct name is only
+ * stored once and the member information only refers to it by its id.
+ *
+ * The method mappings are stored in parallel primitive arrays. The store is
+ * frozen before its first method lookup, or explicitly with {@link #freeze()}.
+ * Freezing groups the methods with the same obfuscated class name and method
+ * name together, sorts them by their obfuscated line numbers, and
+ * precomputes how their line numbers are shifted. Consecutive methods with
+ * the same obfuscated line number range, like the inlining chains in R8
+ * mappings, are indexed as a single range, so a lookup expands a frame into
+ * its entire inlining stack at once. It also splits the
+ * argument lists into arrays of type ids, so lookups can compare them
+ * without creating or comparing strings. A frozen store doesn't accept any
+ * further mapping information.
+ *
+ * @author Eric Lafortune, modified by F43nd1r
+ */
+public class HeapMappingStore
+implements   ArgumentMatchingMappingStore,
+             MappingProcessor
+{
+    private static final int INITIAL_METHOD_CAPACITY = 64;
+
+    // The approximate sizes of some objects, for estimating the size of the
+    // store.
+    static final int MAP_ENTRY_SIZE    = 48;
+    static final int MAP_SIZE          = 64;
+    static final int FIELD_INFO_SIZE   = 24;
+    static final int METHOD_GROUP_SIZE = 40;
+
+    // How the original line number of a method is derived from the
+    // obfuscated line number.
+    private static final byte SAME_LINE_NUMBER    = 0;
+    private static final byte SHIFTED_LINE_NUMBER = 1;
+    private static final byte FIXED_LINE_NUMBER   = 2;
+
+    private final SymbolTable symbols = new SymbolTable();
+
+    // Obfuscated class name -> original class name.
+    private final Map<String,String>                      classMap       = new HashMap<String,String>();
+
+    // Original class name -> obfuscated member name -> member info set/group.
+    private final Map<String,Map<String,Set<FieldInfo>>>  classFieldMap  = new HashMap<String,Map<String,Set<FieldInfo>>>();
+    private final Map<String,Map<String,MethodGroup>>     classMethodMap = new HashMap<String,Map<String,MethodGroup>>();
+
+    // The method information, indexed by method position. While loading,
+    // the positions are the indices in the mapping file. Once frozen, the
+    // methods of each group are contiguous.
+    private int    methodCount;
+    private int[]  obfuscatedFirstLineNumbers = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  obfuscatedLastLineNumbers  = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  originalClassNames         = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  originalFirstLineNumbers   = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  originalLastLineNumbers    = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  originalTypes              = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  originalNames              = new int[INITIAL_METHOD_CAPACITY];
+    private int[]  originalArguments          = new int[INITIAL_METHOD_CAPACITY];
+
+    // The obfuscated line number ranges of a frozen store, indexed by range
+    // id. Each range covers one or more consecutive methods, from its start
+    // position up to the start position of the next range of its group.
+    private int[]  rangeFirstLineNumbers;
+    private int[]  rangeLastLineNumbers;
+    private int[]  rangeMaxLastLineNumbers;
+    private int[]  rangeStarts;
+
+    // The additional method information of a frozen store.
+    private byte[] lineNumberKinds;
+    private int[]  lineNumberShifts;
+    private int[]  methodIndices;
+
+    // The ids of the argument types of the methods of a frozen store. Equal
+    // argument lists share the same array.
+    private int[][] argumentTypes;
+    private long    argumentTypesSize;
+
+    private volatile boolean frozen;
+
+
+    /**
+     * Adds all mapping information of the given store to this store, as if
+     * it followed the mapping information of this store in the mapping file.
+     * Neither store may be frozen.
+     */
+    public void merge(HeapMappingStore other)
+    {
+        checkNotFrozen();
+        other.checkNotFrozen();
+
+        // Translate the ids of the other store to ids of this store, once
+        // for each distinct name.
+        SymbolTable otherSymbols = other.symbols;
+
+        int[] ids = new int[otherSymbols.size()];
+        for (int otherId = 0; otherId < ids.length; otherId++)
+        {
+            ids[otherId] = symbols.add(otherSymbols.get(otherId));
+        }
+
+        for (Map.Entry<String,String> classEntry : other.classMap.entrySet())
+        {
+            classMap.put(symbols.intern(classEntry.getKey()),
+                         symbols.intern(classEntry.getValue()));
+        }
+
+        for (Map.Entry<String,Map<String,Set<FieldInfo>>> classEntry : other.classFieldMap.entrySet())
+        {
+            for (Map.Entry<String,Set<FieldInfo>> fieldEntry : classEntry.getValue().entrySet())
+            {
+                for (FieldInfo fieldInfo : fieldEntry.getValue())
+                {
+                    addFieldInfo(classEntry.getKey(),
+                                 fieldEntry.getKey(),
+                                 new FieldInfo(ids[fieldInfo.originalClassName],
+                                               ids[fieldInfo.originalType],
+                                               ids[fieldInfo.originalName]));
+                }
+            }
+        }
+
+        // Append the method information of the other store in bulk, after
+        // the methods of this store.
+        int methodOffset = methodCount;
+        int newCount     = methodCount + other.methodCount;
+
+        ensureMethodCapacity(newCount);
+
+        System.arraycopy(other.obfuscatedFirstLineNumbers, 0, obfuscatedFirstLineNumbers, methodOffset, other.methodCount);
+        System.arraycopy(other.obfuscatedLastLineNumbers,  0, obfuscatedLastLineNumbers,  methodOffset, other.methodCount);
+        System.arraycopy(other.originalFirstLineNumbers,   0, originalFirstLineNumbers,   methodOffset, other.methodCount);
+        System.arraycopy(other.originalLastLineNumbers,    0, originalLastLineNumbers,    methodOffset, other.methodCount);
+
+        for (int otherIndex = 0; otherIndex < other.methodCount; otherIndex++)
+        {
+            int methodIndex = methodOffset + otherIndex;
+
+            originalClassNames[methodIndex] = ids[other.originalClassNames[otherIndex]];
+            originalTypes[methodIndex]      = ids[other.originalTypes[otherIndex]];
+            originalNames[methodIndex]      = ids[other.originalNames[otherIndex]];
+            originalArguments[methodIndex]  = ids[other.originalArguments[otherIndex]];
+        }
+
+        methodCount = newCount;
+
+        // Add the methods to their groups, once for each group.
+        for (Map.Entry<String,Map<String,MethodGroup>> classEntry : other.classMethodMap.entrySet())
+        {
+            Map<String,MethodGroup> methodMap = methodMap(classEntry.getKey());
+
+            for (Map.Entry<String,MethodGroup> methodEntry : classEntry.getValue().entrySet())
+            {
+                IntList methodIndices      = methodGroup(methodMap, methodEntry.getKey()).methodIndices;
+                IntList otherMethodIndices = methodEntry.getValue().methodIndices;
+
+                for (int index = 0; index < otherMethodIndices.size(); index++)
+                {
+                    methodIndices.add(methodOffset + otherMethodIndices.get(index));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of distinct names in this store.
+     */
+    public int getSymbolCount()
+    {
+        return symbols.size();
+    }
+
+
+    /**
+     * Prepares the method mappings for lookups. Afterwards, the store no
+     * longer accepts any mapping information. Lookups freeze the store
+     * automatically, but loaders can freeze it upfront.
+     */
+    public synchronized void freeze()
+    {
+        if (frozen)
+        {
+            return;
+        }
+
+        int[]   newOriginalClassNames       = new int[methodCount];
+        int[]   newOriginalFirstLineNumbers = new int[methodCount];
+        int[]   newOriginalTypes            = new int[methodCount];
+        int[]   newOriginalNames            = new int[methodCount];
+        int[]   newOriginalArguments        = new int[methodCount];
+        byte[]  newLineNumberKinds          = new byte[methodCount];
+        int[]   newLineNumberShifts         = new int[methodCount];
+        int[]   newMethodIndices            = new int[methodCount];
+        int[][] newArgumentTypes            = new int[methodCount][];
+
+        IntList newRangeFirstLineNumbers = new IntList();
+        IntList newRangeLastLineNumbers  = new IntList();
+        IntList newRangeStarts           = new IntList();
+
+        // Argument list id -> argument type ids.
+        Map<Integer,int[]> argumentTypesMap = new HashMap<Integer,int[]>();
+
+        int position = 0;
+
+        for (Map<String,MethodGroup> methodMap : classMethodMap.values())
+        {
+            for (MethodGroup methodGroup : methodMap.values())
+            {
+                IntList groupMethodIndices = methodGroup.methodIndices;
+                int     groupMethodCount   = groupMethodIndices.size();
+
+                // Put the methods without line numbers first, in their
+                // original order.
+                methodGroup.start = position;
+
+                for (int index = 0; index < groupMethodCount; index++)
+                {
+                    int methodIndex = groupMethodIndices.get(index);
+                    if (obfuscatedLastLineNumbers[methodIndex] == 0)
+                    {
+                        newMethodIndices[position++] = methodIndex;
+                    }
+                }
+
+                // Put the other methods next, sorted by their first line
+                // numbers. The sort key and the method index are packed into
+                // a long, which also keeps the sort stable.
+                methodGroup.numberedStart = position;
+
+                long[] keys = new long[groupMethodCount - (position - methodGroup.start)];
+
+                int keyCount = 0;
+                for (int index = 0; index < groupMethodCount; index++)
+                {
+                    int methodIndex = groupMethodIndices.get(index);
+                    if (obfuscatedLastLineNumbers[methodIndex] != 0)
+                    {
+                        keys[keyCount++] = ((long)obfuscatedFirstLineNumbers[methodIndex] << 32) |
+                                           methodIndex;
+                    }
+                }
+
+                Arrays.sort(keys);
+
+                for (int index = 0; index < keyCount; index++)
+                {
+                    newMethodIndices[position++] = (int)keys[index];
+                }
+
+                methodGroup.end           = position;
+                methodGroup.methodIndices = null;
+
+                // Collect the line number ranges of both parts.
+                methodGroup.rangeStart =
+                    addRanges(newMethodIndices,
+                              methodGroup.start,
+                              methodGroup.numberedStart,
+                              newRangeFirstLineNumbers,
+                              newRangeLastLineNumbers,
+                              newRangeStarts);
+
+                methodGroup.numberedRangeStart =
+                    addRanges(newMethodIndices,
+                              methodGroup.numberedStart,
+                              methodGroup.end,
+                              newRangeFirstLineNumbers,
+                              newRangeLastLineNumbers,
+                              newRangeStarts);
+
+                methodGroup.rangeEnd = newRangeStarts.size();
+            }
+        }
+
+        // Copy the method information to the new positions.
+        for (position = 0; position < methodCount; position++)
+        {
+            int methodIndex = newMethodIndices[position];
+
+            int obfuscatedFirstLineNumber = obfuscatedFirstLineNumbers[methodIndex];
+            int originalFirstLineNumber   = originalFirstLineNumbers[methodIndex];
+            int originalLastLineNumber    = originalLastLineNumbers[methodIndex];
+
+            newOriginalClassNames[position]         = originalClassNames[methodIndex];
+            newOriginalFirstLineNumbers[position]   = originalFirstLineNumber;
+            newOriginalTypes[position]              = originalTypes[methodIndex];
+            newOriginalNames[position]              = originalNames[methodIndex];
+            newOriginalArguments[position]          = originalArguments[methodIndex];
+            newArgumentTypes[position]              = argumentTypes(originalArguments[methodIndex],
+                                                                    argumentTypesMap);
+
+            // Precompute the line number shift, with the same logic as
+            // LineNumbers#originalLineNumber.
+            newLineNumberKinds[position] =
+                originalFirstLineNumber   == obfuscatedFirstLineNumber ? SAME_LINE_NUMBER    :
+                originalLastLineNumber    != 0                         &&
+                originalLastLineNumber    != originalFirstLineNumber   &&
+                obfuscatedFirstLineNumber != 0                         ? SHIFTED_LINE_NUMBER :
+                                                                         FIXED_LINE_NUMBER;
+
+            newLineNumberShifts[position] = originalFirstLineNumber - obfuscatedFirstLineNumber;
+        }
+
+        // Index the numbered line number ranges of the groups.
+        rangeFirstLineNumbers   = newRangeFirstLineNumbers.toArray();
+        rangeLastLineNumbers    = newRangeLastLineNumbers.toArray();
+        rangeMaxLastLineNumbers = new int[rangeLastLineNumbers.length];
+        rangeStarts             = newRangeStarts.toArray();
+
+        for (Map<String,MethodGroup> methodMap : classMethodMap.values())
+        {
+            for (MethodGroup methodGroup : methodMap.values())
+            {
+                LineRangeIndex.index(rangeLastLineNumbers,
+                                     rangeMaxLastLineNumbers,
+                                     methodGroup.numberedRangeStart,
+                                     methodGroup.rangeEnd);
+            }
+        }
+
+        obfuscatedFirstLineNumbers = null;
+        obfuscatedLastLineNumbers  = null;
+        originalClassNames         = newOriginalClassNames;
+        originalFirstLineNumbers   = newOriginalFirstLineNumbers;
+        originalLastLineNumbers    = null;
+        originalTypes              = newOriginalTypes;
+        originalNames              = newOriginalNames;
+        originalArguments          = newOriginalArguments;
+        lineNumberKinds            = newLineNumberKinds;
+        lineNumberShifts           = newLineNumberShifts;
+        methodIndices              = newMethodIndices;
+        argumentTypes              = newArgumentTypes;
+
+        // The array of references and the shared arrays.
+        argumentTypesSize = 4L * methodCount;
+        for (int[] types : argumentTypesMap.values())
+        {
+            argumentTypesSize += 16L + 4L * types.length;
+        }
+
+        frozen = true;
+    }
+
+
+    // Implementations for MappingStore.
+
+    public String getOriginalClassName(String obfuscatedClassName)
+    {
+        return classMap.get(obfuscatedClassName);
+    }
+
+
+    public void fieldMappingsAccept(String               className,
+                                    String               obfuscatedFieldName,
+                                    MemberMappingVisitor visitor)
+    {
+        // Class name -> obfuscated field names.
+        Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(className);
+        if (fieldMap != null)
+        {
+            // Obfuscated field names -> fields.
+            Set<FieldInfo> fieldSet = fieldMap.get(obfuscatedFieldName);
+            if (fieldSet != null)
+            {
+                // Visit all fields.
+                Iterator<FieldInfo> fieldInfoIterator = fieldSet.iterator();
+                while (fieldInfoIterator.hasNext())
+                {
+                    FieldInfo fieldInfo = fieldInfoIterator.next();
+                    visitor.visitFieldMapping(symbols.get(fieldInfo.originalClassName),
+                                              symbols.get(fieldInfo.originalType),
+                                              symbols.get(fieldInfo.originalName));
+                }
+            }
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     MemberMappingVisitor visitor)
+    {
+        methodMappingsAccept(className,
+                             obfuscatedMethodName,
+                             obfuscatedLineNumber,
+                             (int[])null,
+                             visitor);
+    }
+
+
+    public synchronized long getSize()
+    {
+        long size = symbols.getSize() +
+                    (long)MAP_ENTRY_SIZE * classMap.size();
+
+        // The field information.
+        for (Map<String,Set<FieldInfo>> fieldMap : classFieldMap.values())
+        {
+            size += MAP_ENTRY_SIZE + MAP_SIZE + (long)MAP_ENTRY_SIZE * fieldMap.size();
+
+            for (Set<FieldInfo> fieldSet : fieldMap.values())
+            {
+                size += MAP_SIZE + (long)(MAP_ENTRY_SIZE + FIELD_INFO_SIZE) * fieldSet.size();
+            }
+        }
+
+        // The method groups.
+        for (Map<String,MethodGroup> methodMap : classMethodMap.values())
+        {
+            size += MAP_ENTRY_SIZE + MAP_SIZE + (long)(MAP_ENTRY_SIZE + METHOD_GROUP_SIZE) * methodMap.size();
+        }
+
+        // The method information.
+        size += 4L * (length(obfuscatedFirstLineNumbers) +
+                      length(obfuscatedLastLineNumbers)  +
+                      length(originalClassNames)         +
+                      length(originalFirstLineNumbers)   +
+                      length(originalLastLineNumbers)    +
+                      length(originalTypes)              +
+                      length(originalNames)              +
+                      length(originalArguments)          +
+                      length(lineNumberShifts)           +
+                      length(methodIndices)              +
+                      length(rangeFirstLineNumbers)      +
+                      length(rangeLastLineNumbers)       +
+                      length(rangeMaxLastLineNumbers)    +
+                      length(rangeStarts));
+
+        if (lineNumberKinds != null)
+        {
+            size += lineNumberKinds.length;
+        }
+
+        return size + argumentTypesSize;
+    }
+
+
+    // Implementations for ArgumentMatchingMappingStore.
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     String[]             originalArgumentTypes,
+                                     MemberMappingVisitor visitor)
+    {
+        if (!frozen)
+        {
+            freeze();
+        }
+
+        // Translate the argument types to ids. Types without ids can't
+        // match any methods.
+        int[] argumentTypes = new int[originalArgumentTypes.length];
+        for (int index = 0; index < argumentTypes.length; index++)
+        {
+            int argumentType = symbols.indexOf(originalArgumentTypes[index]);
+            if (argumentType < 0)
+            {
+                return;
+            }
+
+            argumentTypes[index] = argumentType;
+        }
+
+        methodMappingsAccept(className,
+                             obfuscatedMethodName,
+                             obfuscatedLineNumber,
+                             argumentTypes,
+                             visitor);
+    }
+
+
+    // Implementations for MappingProcessor.
+
+    public boolean processClassMapping(String className,
+                                       String newClassName)
+    {
+        checkNotFrozen();
+
+        // Obfuscated class name -> original class name.
+        classMap.put(symbols.intern(newClassName),
+                     symbols.intern(className));
+
+        return true;
+    }
+
+
+    public void processFieldMapping(String className,
+                                    String fieldType,
+                                    String fieldName,
+                                    String newClassName,
+                                    String newFieldName)
+    {
+        checkNotFrozen();
+
+        addFieldInfo(newClassName,
+                     newFieldName,
+                     new FieldInfo(symbols.add(className),
+                                   symbols.add(fieldType),
+                                   symbols.add(fieldName)));
+    }
+
+
+    public void processMethodMapping(String className,
+                                     int    firstLineNumber,
+                                     int    lastLineNumber,
+                                     String methodReturnType,
+                                     String methodName,
+                                     String methodArguments,
+                                     String newClassName,
+                                     int    newFirstLineNumber,
+                                     int    newLastLineNumber,
+                                     String newMethodName)
+    {
+        checkNotFrozen();
+
+        addMethod(newClassName,
+                  newMethodName,
+                  newFirstLineNumber,
+                  newLastLineNumber,
+                  symbols.add(className),
+                  firstLineNumber,
+                  lastLineNumber,
+                  symbols.add(methodReturnType),
+                  symbols.add(methodName),
+                  symbols.add(methodArguments));
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the length of the given array, or 0 if it is null.
+     */
+    private static int length(int[] array)
+    {
+        return array == null ? 0 : array.length;
+    }
+
+
+    /**
+     * Throws an IllegalStateException if this store is frozen.
+     */
+    private void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("The mapping store is already frozen");
+        }
+    }
+
+
+    /**
+     * Visits the matching methods, like the public method, but only the
+     * ones with the given argument type ids, if specified.
+     */
+    private void methodMappingsAccept(String               className,
+                                      String               obfuscatedMethodName,
+                                      int                  obfuscatedLineNumber,
+                                      int[]                argumentTypes,
+                                      MemberMappingVisitor visitor)
+    {
+        if (!frozen)
+        {
+            freeze();
+        }
+
+        // Class name -> obfuscated method names.
+        Map<String,MethodGroup> methodMap = classMethodMap.get(className);
+        if (methodMap != null)
+        {
+            // Obfuscated method names -> methods.
+            MethodGroup methodGroup = methodMap.get(obfuscatedMethodName);
+            if (methodGroup != null)
+            {
+                if (obfuscatedLineNumber == 0)
+                {
+                    // Visit all methods without line numbers.
+                    for (int position = methodGroup.start; position < methodGroup.numberedStart; position++)
+                    {
+                        visitMethod(position, obfuscatedLineNumber, argumentTypes, visitor);
+                    }
+                }
+                else
+                {
+                    // Find all ranges that contain the line number.
+                    IntList ranges = new IntList();
+
+                    // Only negative line numbers can match methods
+                    // without line numbers.
+                    if (obfuscatedLineNumber < 0)
+                    {
+                        for (int range = methodGroup.rangeStart; range < methodGroup.numberedRangeStart; range++)
+                        {
+                            if (LineNumbers.matches(obfuscatedLineNumber,
+                                                    rangeFirstLineNumbers[range],
+                                                    rangeLastLineNumbers[range]))
+                            {
+                                ranges.add(range);
+                            }
+                        }
+                    }
+
+                    LineRangeIndex.find(rangeFirstLineNumbers,
+                                        rangeLastLineNumbers,
+                                        rangeMaxLastLineNumbers,
+                                        methodGroup.numberedRangeStart,
+                                        methodGroup.rangeEnd,
+                                        obfuscatedLineNumber,
+                                        ranges);
+
+                    visitRanges(methodGroup, ranges, obfuscatedLineNumber, argumentTypes, visitor);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds the given field information for the given class and obfuscated
+     * field name.
+     */
+    private void addFieldInfo(String    className,
+                              String    obfuscatedFieldName,
+                              FieldInfo fieldInfo)
+    {
+        // Class name -> obfuscated field names.
+        Map<String,Set<FieldInfo>> fieldMap = classFieldMap.get(className);
+        if (fieldMap == null)
+        {
+            fieldMap = new HashMap<String,Set<FieldInfo>>();
+            classFieldMap.put(symbols.intern(className), fieldMap);
+        }
+
+        // Obfuscated field name -> fields.
+        Set<FieldInfo> fieldSet = fieldMap.get(obfuscatedFieldName);
+        if (fieldSet == null)
+        {
+            fieldSet = new LinkedHashSet<FieldInfo>();
+            fieldMap.put(symbols.intern(obfuscatedFieldName), fieldSet);
+        }
+
+        // Add the field information.
+        fieldSet.add(fieldInfo);
+    }
+
+
+    /**
+     * Adds the given method information for the given class and obfuscated
+     * method name.
+     */
+    private void addMethod(String className,
+                           String obfuscatedMethodName,
+                           int    obfuscatedFirstLineNumber,
+                           int    obfuscatedLastLineNumber,
+                           int    originalClassName,
+                           int    originalFirstLineNumber,
+                           int    originalLastLineNumber,
+                           int    originalType,
+                           int    originalName,
+                           int    originalArguments)
+    {
+        MethodGroup methodGroup = methodGroup(methodMap(className),
+                                              obfuscatedMethodName);
+
+        // Add the method information.
+        ensureMethodCapacity(methodCount + 1);
+
+        int methodIndex = methodCount++;
+
+        obfuscatedFirstLineNumbers[methodIndex] = obfuscatedFirstLineNumber;
+        obfuscatedLastLineNumbers[methodIndex]  = obfuscatedLastLineNumber;
+        originalClassNames[methodIndex]         = originalClassName;
+        originalFirstLineNumbers[methodIndex]   = originalFirstLineNumber;
+        originalLastLineNumbers[methodIndex]    = originalLastLineNumber;
+        originalTypes[methodIndex]              = originalType;
+        originalNames[methodIndex]              = originalName;
+        this.originalArguments[methodIndex]     = originalArguments;
+
+        methodGroup.methodIndices.add(methodIndex);
+    }
+
+
+    /**
+     * Returns the obfuscated method names and their methods of the given
+     * class, creating them if necessary.
+     */
+    private Map<String,MethodGroup> methodMap(String className)
+    {
+        // Class name -> obfuscated method names.
+        Map<String,MethodGroup> methodMap = classMethodMap.get(className);
+        if (methodMap == null)
+        {
+            methodMap = new HashMap<String,MethodGroup>();
+            classMethodMap.put(symbols.intern(className), methodMap);
+        }
+
+        return methodMap;
+    }
+
+
+    /**
+     * Returns the methods with the given obfuscated method name in the given
+     * method map, creating them if necessary.
+     */
+    private MethodGroup methodGroup(Map<String,MethodGroup> methodMap,
+                                    String                  obfuscatedMethodName)
+    {
+        // Obfuscated method name -> methods.
+        MethodGroup methodGroup = methodMap.get(obfuscatedMethodName);
+        if (methodGroup == null)
+        {
+            methodGroup = new MethodGroup();
+            methodMap.put(symbols.intern(obfuscatedMethodName), methodGroup);
+        }
+
+        return methodGroup;
+    }
+
+
+    /**
+     * Makes sure that the method arrays can hold the given number of
+     * methods.
+     */
+    private void ensureMethodCapacity(int count)
+    {
+        if (count > obfuscatedFirstLineNumbers.length)
+        {
+            int capacity = Math.max(count, obfuscatedFirstLineNumbers.length * 2);
+
+            obfuscatedFirstLineNumbers = Arrays.copyOf(obfuscatedFirstLineNumbers, capacity);
+            obfuscatedLastLineNumbers  = Arrays.copyOf(obfuscatedLastLineNumbers,  capacity);
+            originalClassNames         = Arrays.copyOf(originalClassNames,         capacity);
+            originalFirstLineNumbers   = Arrays.copyOf(originalFirstLineNumbers,   capacity);
+            originalLastLineNumbers    = Arrays.copyOf(originalLastLineNumbers,    capacity);
+            originalTypes              = Arrays.copyOf(originalTypes,              capacity);
+            originalNames              = Arrays.copyOf(originalNames,              capacity);
+            originalArguments          = Arrays.copyOf(originalArguments,          capacity);
+        }
+    }
+
+
+    /**
+     * Returns the ids of the types in the given argument list, splitting
+     * it at its commas, like a FrameRemapper does. Equal argument lists
+     * share the same array.
+     */
+    private int[] argumentTypes(int                originalArguments,
+                                Map<Integer,int[]> argumentTypesMap)
+    {
+        Integer key           = Integer.valueOf(originalArguments);
+        int[]   argumentTypes = argumentTypesMap.get(key);
+        if (argumentTypes == null)
+        {
+            String arguments = symbols.get(originalArguments);
+
+            IntList types = new IntList();
+
+            int startIndex = 0;
+            while (true)
+            {
+                int endIndex = arguments.indexOf(',', startIndex);
+                if (endIndex < 0)
+                {
+                    break;
+                }
+
+                types.add(symbols.add(arguments.substring(startIndex, endIndex)));
+
+                startIndex = endIndex + 1;
+            }
+
+            types.add(symbols.add(arguments.substring(startIndex)));
+
+            argumentTypes = types.toArray();
+            argumentTypesMap.put(key, argumentTypes);
+        }
+
+        return argumentTypes;
+    }
+
+
+    /**
+     * Adds the line number ranges of the methods at the given new positions,
+     * merging consecutive methods with the same range, like the inlining
+     * chains of R8. Returns the id of the first added range.
+     */
+    private int addRanges(int[]   newMethodIndices,
+                          int     start,
+                          int     end,
+                          IntList newRangeFirstLineNumbers,
+                          IntList newRangeLastLineNumbers,
+                          IntList newRangeStarts)
+    {
+        int firstRange = newRangeStarts.size();
+
+        int position = start;
+        while (position < end)
+        {
+            int methodIndex     = newMethodIndices[position];
+            int firstLineNumber = obfuscatedFirstLineNumbers[methodIndex];
+            int lastLineNumber  = obfuscatedLastLineNumbers[methodIndex];
+
+            newRangeFirstLineNumbers.add(firstLineNumber);
+            newRangeLastLineNumbers.add(lastLineNumber);
+            newRangeStarts.add(position);
+
+            // Include the directly following methods of the mapping file
+            // with the same range.
+            position++;
+            while (position < end)
+            {
+                int nextMethodIndex = newMethodIndices[position];
+                if (nextMethodIndex != methodIndex + 1                         ||
+                    obfuscatedFirstLineNumbers[nextMethodIndex] != firstLineNumber ||
+                    obfuscatedLastLineNumbers[nextMethodIndex]  != lastLineNumber)
+                {
+                    break;
+                }
+
+                methodIndex = nextMethodIndex;
+                position++;
+            }
+        }
+
+        return firstRange;
+    }
+
+
+    /**
+     * Visits the methods of the given ranges of the given group of a frozen
+     * store, in the order of the mapping file, optionally only the ones with
+     * the given argument type ids.
+     */
+    private void visitRanges(MethodGroup          methodGroup,
+                             IntList              ranges,
+                             int                  obfuscatedLineNumber,
+                             int[]                argumentTypes,
+                             MemberMappingVisitor visitor)
+    {
+        int count = ranges.size();
+        if (count == 1)
+        {
+            visitRange(methodGroup, ranges.get(0), obfuscatedLineNumber, argumentTypes, visitor);
+        }
+        else if (count > 1)
+        {
+            // Sort the ranges by the method indices of their first methods.
+            // The methods of a range are consecutive in the mapping file,
+            // so this restores the order of all methods.
+            long[] keys = new long[count];
+            for (int index = 0; index < count; index++)
+            {
+                int range = ranges.get(index);
+                keys[index] = ((long)methodIndices[rangeStarts[range]] << 32) | range;
+            }
+
+            Arrays.sort(keys);
+
+            for (int index = 0; index < count; index++)
+            {
+                visitRange(methodGroup, (int)keys[index], obfuscatedLineNumber, argumentTypes, visitor);
+            }
+        }
+    }
+
+
+    /**
+     * Visits the methods of the given range of the given group of a frozen
+     * store.
+     */
+    private void visitRange(MethodGroup          methodGroup,
+                            int                  range,
+                            int                  obfuscatedLineNumber,
+                            int[]                argumentTypes,
+                            MemberMappingVisitor visitor)
+    {
+        int end = range + 1 < methodGroup.rangeEnd ?
+            rangeStarts[range + 1] :
+            methodGroup.end;
+
+        for (int position = rangeStarts[range]; position < end; position++)
+        {
+            visitMethod(position, obfuscatedLineNumber, argumentTypes, visitor);
+        }
+    }
+
+
+    /**
+     * Visits the method at the given position of a frozen store, if it has
+     * the given argument type ids, if specified.
+     */
+    private void visitMethod(int                  position,
+                             int                  obfuscatedLineNumber,
+                             int[]                argumentTypes,
+                             MemberMappingVisitor visitor)
+    {
+        if (argumentTypes != null &&
+            !Arrays.equals(this.argumentTypes[position], argumentTypes))
+        {
+            return;
+        }
+
+        visitor.visitMethodMapping(symbols.get(originalClassNames[position]),
+                                   originalLineNumber(position, obfuscatedLineNumber),
+                                   symbols.get(originalTypes[position]),
+                                   symbols.get(originalNames[position]),
+                                   symbols.get(originalArguments[position]));
+    }
+
+
+    /**
+     * Returns the original line number of the method at the given position
+     * of a frozen store, for the given obfuscated line number.
+     */
+    private int originalLineNumber(int position,
+                                   int obfuscatedLineNumber)
+    {
+        switch (lineNumberKinds[position])
+        {
+            case SAME_LINE_NUMBER:
+                return obfuscatedLineNumber;
+
+            case SHIFTED_LINE_NUMBER:
+                return obfuscatedLineNumber != 0 ?
+                    obfuscatedLineNumber + lineNumberShifts[position] :
+                    originalFirstLineNumbers[position];
+
+            default:
+                return originalFirstLineNumbers[position];
+        }
+    }
+
+
+    /**
+     * Information about the original version and the obfuscated version of
+     * a field (without the obfuscated class name or field name).
+     */
+    private static class FieldInfo
+    {
+        private final int originalClassName;
+        private final int originalType;
+        private final int originalName;
+
+
+        /**
+         * Creates a new FieldInfo with the given properties.
+         */
+        private FieldInfo(int originalClassName,
+                          int originalType,
+                          int originalName)
+        {
+            this.originalClassName = originalClassName;
+            this.originalType      = originalType;
+            this.originalName      = originalName;
+        }
+    }
+
+
+    /**
+     * The methods with the same obfuscated class name and method name. While
+     * loading, it lists their indices in the mapping file. Once frozen, it
+     * refers to their positions.
+     */
+    private static class MethodGroup
+    {
+        private IntList methodIndices = new IntList(1);
+
+        // The positions of the methods without line numbers, followed by
+        // the positions of the methods with line numbers.
+        private int start;
+        private int numberedStart;
+        private int end;
+
+        // The ids of the corresponding line number ranges. The ranges of the
+        // methods with line numbers are indexed.
+        private int rangeStart;
+        private int numberedRangeStart;
+        private int rangeEnd;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints.
+ *
+ * @author F43nd1r
+ */
+class IntList
+{
+    private int[] values;
+    private int   size;
+
+
+    /**
+     * Creates a new IntList with a small initial capacity.
+     */
+    public IntList()
+    {
+        this(4);
+    }
+
+
+    /**
+     * Creates a new IntList with the given initial capacity.
+     */
+    public IntList(int initialCapacity)
+    {
+        values = new int[Math.max(initialCapacity, 1)];
+    }
+
+
+    /**
+     * Appends the given value.
+     */
+    public void add(int value)
+    {
+        if (size == values.length)
+        {
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        values[size++] = value;
+    }
+
+
+    /**
+     * Returns the value at the given index.
+     */
+    public int get(int index)
+    {
+        return values[index];
+    }
+
+
+    /**
+     * Returns the number of values.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Returns a copy of the values.
+     */
+    public int[] toArray()
+    {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * This MappingStore reads the class members of a mapping file lazily. When it
+ * is created, it only reads the class mappings, remembering the offsets of
+ * their sections in the file. It then parses the class member mappings of a
+ * class the first time they are looked up.
+ * <p>
+ * The store can be shared by any number of threads.
+ *
+ * @author F43nd1r
+ */
+public class LazyMappingStore implements ArgumentMatchingMappingStore
+{
+    private final MappingSections sections;
+
+    // Original class name -> parsed class members.
+    private final ConcurrentMap<String,HeapMappingStore> classMembers = new ConcurrentHashMap<String,HeapMappingStore>();
+
+
+    /**
+     * Creates a new LazyMappingStore for the given mapping file, mapping it
+     * into memory.
+     */
+    public LazyMappingStore(File mappingFile) throws IOException
+    {
+        this(MappingSections.map(mappingFile));
+    }
+
+
+    /**
+     * Creates a new LazyMappingStore for the mapping file in the given buffer,
+     * from its current position up to its limit. The buffer must not be
+     * modified while the store is in use.
+     */
+    public LazyMappingStore(ByteBuffer mapping)
+    {
+        this.sections = new MappingSections(mapping);
+    }
+
+
+    // Implementations for MappingStore.
+
+    public String getOriginalClassName(String obfuscatedClassName)
+    {
+        return sections.getOriginalClassName(obfuscatedClassName);
+    }
+
+
+    public void fieldMappingsAccept(String               className,
+                                    String               obfuscatedFieldName,
+                                    MemberMappingVisitor visitor)
+    {
+        HeapMappingStore members = classMembers(className);
+        if (members != null)
+        {
+            members.fieldMappingsAccept(className,
+                                        obfuscatedFieldName,
+                                        visitor);
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     MemberMappingVisitor visitor)
+    {
+        HeapMappingStore members = classMembers(className);
+        if (members != null)
+        {
+            members.methodMappingsAccept(className,
+                                         obfuscatedMethodName,
+                                         obfuscatedLineNumber,
+                                         visitor);
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     String[]             originalArgumentTypes,
+                                     MemberMappingVisitor visitor)
+    {
+        HeapMappingStore members = classMembers(className);
+        if (members != null)
+        {
+            members.methodMappingsAccept(className,
+                                         obfuscatedMethodName,
+                                         obfuscatedLineNumber,
+                                         originalArgumentTypes,
+                                         visitor);
+        }
+    }
+
+
+    public long getSize()
+    {
+        long size = sections.getSize();
+
+        // Add the class members that have been parsed so far.
+        for (HeapMappingStore members : classMembers.values())
+        {
+            size += HeapMappingStore.MAP_ENTRY_SIZE + members.getSize();
+        }
+
+        return size;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the parsed class members of the given original class, parsing
+     * its section of the mapping file if necessary, or null if the class isn't
+     * mapped.
+     */
+    private HeapMappingStore classMembers(String className)
+    {
+        HeapMappingStore members = classMembers.get(className);
+        if (members == null)
+        {
+            int sectionIndex = sections.sectionIndex(className);
+            if (sectionIndex < 0)
+            {
+                return null;
+            }
+
+            members = sections.parseSection(sectionIndex);
+
+            // Another thread may have parsed the same section concurrently.
+            HeapMappingStore otherMembers = classMembers.putIfAbsent(className, members);
+            if (otherMembers != null)
+            {
+                members = otherMembers;
+            }
+        }
+
+        return members;
+    }
+}
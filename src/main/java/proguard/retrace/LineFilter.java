@@ -0,0 +1,40 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * This interface decides whether lines may contain stack frames, before
+ * they are matched against a FramePattern. ReTrace copies the lines that a
+ * filter rejects to its output unchanged, without matching them.
+ *
+ * @see LiteralLineFilter
+ *
+ * @author F43nd1r
+ */
+public interface LineFilter
+{
+    /**
+     * Returns whether the given line may contain a stack frame. Returning
+     * true is always safe; returning false is only allowed if the line
+     * certainly doesn't match the pattern.
+     */
+    public boolean accepts(String line);
+}
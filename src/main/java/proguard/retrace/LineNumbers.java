@@ -0,0 +1,69 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * Utility methods for matching and shifting line numbers of method mappings.
+ *
+ * @author Eric Lafortune, modified by F43nd1r
+ */
+class LineNumbers
+{
+    /**
+     * Returns whether the given obfuscated line number lies in the given
+     * obfuscated line number range. An unknown line number, represented as
+     * 0, only matches methods without line numbers.
+     */
+    static boolean matches(int obfuscatedLineNumber,
+                           int obfuscatedFirstLineNumber,
+                           int obfuscatedLastLineNumber)
+    {
+        return obfuscatedLineNumber == 0 ? obfuscatedLastLineNumber == 0 :
+               obfuscatedFirstLineNumber <= obfuscatedLineNumber && obfuscatedLineNumber <= obfuscatedLastLineNumber;
+    }
+
+
+    /**
+     * Returns the original line number that corresponds to the given
+     * obfuscated line number in a method with the given line number ranges.
+     */
+    static int originalLineNumber(int obfuscatedLineNumber,
+                                  int obfuscatedFirstLineNumber,
+                                  int originalFirstLineNumber,
+                                  int originalLastLineNumber)
+    {
+        // Do we have a different original first line number?
+        // We're allowing unknown values, represented as 0.
+        if (originalFirstLineNumber == obfuscatedFirstLineNumber)
+        {
+            return obfuscatedLineNumber;
+        }
+
+        // Do we have an original line number range and
+        // sufficient information to shift the line number?
+        return originalLastLineNumber    != 0                       &&
+               originalLastLineNumber    != originalFirstLineNumber &&
+               obfuscatedFirstLineNumber != 0                       &&
+               obfuscatedLineNumber      != 0 ?
+            originalFirstLineNumber - obfuscatedFirstLineNumber + obfuscatedLineNumber :
+            originalFirstLineNumber;
+    }
+}
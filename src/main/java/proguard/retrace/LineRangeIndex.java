@@ -0,0 +1,121 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * Utility methods for finding the line number ranges that contain a given
+ * line number. The ranges are stored in slices [start, end) of parallel
+ * arrays, sorted by their first line numbers. Each slice forms an implicit
+ * binary search tree, with its root in the middle, in which every node also
+ * knows the largest last line number of its subtree. A lookup therefore
+ * only visits O(log n) nodes for every match, no matter how many ranges
+ * overlap.
+ *
+ * @author F43nd1r
+ */
+class LineRangeIndex
+{
+    /**
+     * Fills out the largest last line numbers of the subtrees of the given
+     * slice of ranges, which must be sorted by their first line numbers.
+     * @param lastLineNumbers    the last line numbers of the ranges.
+     * @param maxLastLineNumbers the array in which the largest last line
+     *                           numbers of the subtrees are stored.
+     * @param start              the start of the slice.
+     * @param end                the end of the slice (exclusive).
+     * @return the largest last line number in the slice.
+     */
+    static int index(int[] lastLineNumbers,
+                     int[] maxLastLineNumbers,
+                     int   start,
+                     int   end)
+    {
+        if (start >= end)
+        {
+            return Integer.MIN_VALUE;
+        }
+
+        int middle = (start + end) >>> 1;
+
+        int max = Math.max(lastLineNumbers[middle],
+                  Math.max(index(lastLineNumbers, maxLastLineNumbers, start, middle),
+                           index(lastLineNumbers, maxLastLineNumbers, middle + 1, end)));
+
+        maxLastLineNumbers[middle] = max;
+
+        return max;
+    }
+
+
+    /**
+     * Collects the positions of the ranges in the given indexed slice that
+     * contain the given line number.
+     * @param firstLineNumbers   the first line numbers of the ranges.
+     * @param lastLineNumbers    the last line numbers of the ranges.
+     * @param maxLastLineNumbers the largest last line numbers of the subtrees.
+     * @param start              the start of the slice.
+     * @param end                the end of the slice (exclusive).
+     * @param lineNumber         the line number.
+     * @param positions          the list to which the positions are added.
+     */
+    static void find(int[]   firstLineNumbers,
+                     int[]   lastLineNumbers,
+                     int[]   maxLastLineNumbers,
+                     int     start,
+                     int     end,
+                     int     lineNumber,
+                     IntList positions)
+    {
+        while (start < end)
+        {
+            int middle = (start + end) >>> 1;
+
+            // Skip the subtree if none of its ranges reach the line number.
+            if (maxLastLineNumbers[middle] < lineNumber)
+            {
+                break;
+            }
+
+            // Collect matches from the left subtree.
+            find(firstLineNumbers,
+                 lastLineNumbers,
+                 maxLastLineNumbers,
+                 start,
+                 middle,
+                 lineNumber,
+                 positions);
+
+            // The root and the right subtree all start after the line number.
+            if (firstLineNumbers[middle] > lineNumber)
+            {
+                break;
+            }
+
+            if (lastLineNumbers[middle] >= lineNumber)
+            {
+                positions.add(middle);
+            }
+
+            // Continue with the right subtree.
+            start = middle + 1;
+        }
+    }
+}
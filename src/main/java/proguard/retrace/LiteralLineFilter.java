@@ -0,0 +1,502 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This LineFilter accepts the lines that contain at least one of a given
+ * set of literal strings. It can derive such a set from the regular
+ * expression of a FramePattern: the literal strings of which any matching
+ * line contains at least one.
+ *
+ * @author F43nd1r
+ */
+public class LiteralLineFilter implements LineFilter
+{
+    private final String[] literals;
+
+
+    /**
+     * Creates a new LiteralLineFilter that accepts the lines that contain
+     * at least one of the given literal strings.
+     */
+    public LiteralLineFilter(String... literals)
+    {
+        this.literals = literals;
+    }
+
+
+    /**
+     * Creates a new LiteralLineFilter for the given regular expression, with
+     * the same syntax as for FramePattern.
+     * @param regularExpression the regular expression for parsing the lines
+     *                          in the stack trace.
+     * @return the filter, or null if the expression doesn't require any
+     *         literal strings that the filter could check.
+     */
+    public static LiteralLineFilter forExpression(String regularExpression)
+    {
+        Set<String> literals;
+        try
+        {
+            literals = new ExpressionParser(regularExpression).parse();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // The expression uses constructs that we don't analyze.
+            return null;
+        }
+
+        return literals == null ? null :
+            new LiteralLineFilter(literals.toArray(new String[literals.size()]));
+    }
+
+
+    /**
+     * Returns the literal strings of this filter.
+     */
+    public String[] getLiterals()
+    {
+        return literals.clone();
+    }
+
+
+    // Implementations for LineFilter.
+
+    public boolean accepts(String line)
+    {
+        for (int index = 0; index < literals.length; index++)
+        {
+            if (line.contains(literals[index]))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * This class derives the literal strings that matching lines contain
+     * from a regular expression. For every alternative, it picks the longest
+     * literal string that the alternative can't match without. The analysis
+     * is conservative: optional constructs, character classes, lookaround,
+     * and frame information placeholders don't contribute any literals.
+     * Constructs that it doesn't handle, like inline flags and quotations,
+     * make it throw an IllegalArgumentException.
+     */
+    private static class ExpressionParser
+    {
+        private final String expression;
+        private int          index;
+
+
+        private ExpressionParser(String expression)
+        {
+            this.expression = expression;
+        }
+
+
+        /**
+         * Returns the literal strings of which matching lines contain at
+         * least one, or null if they don't need to contain any.
+         */
+        public Set<String> parse()
+        {
+            Set<String> literals = parseAlternatives();
+            if (index < expression.length())
+            {
+                throw new IllegalArgumentException("Unbalanced parentheses");
+            }
+
+            return literals;
+        }
+
+
+        // Small utility methods.
+
+        /**
+         * Parses alternatives up to the end of the enclosing group.
+         */
+        private Set<String> parseAlternatives()
+        {
+            Set<String> literals = new LinkedHashSet<String>();
+            boolean     required = true;
+
+            while (true)
+            {
+                Set<String> alternativeLiterals = parseSequence();
+                if (alternativeLiterals == null)
+                {
+                    required = false;
+                }
+                else
+                {
+                    literals.addAll(alternativeLiterals);
+                }
+
+                if (peek() != '|')
+                {
+                    break;
+                }
+
+                index++;
+            }
+
+            return required ? literals : null;
+        }
+
+
+        /**
+         * Parses a sequence of atoms up to the next alternative or the end
+         * of the enclosing group.
+         */
+        private Set<String> parseSequence()
+        {
+            Set<String>   bestLiterals = null;
+            StringBuilder literal      = new StringBuilder();
+
+            while (index < expression.length())
+            {
+                char c = expression.charAt(index);
+                if (c == '|' || c == ')')
+                {
+                    break;
+                }
+
+                // Parse an atom: either a literal character or a construct,
+                // which may require literals of its own.
+                int         literalCharacter = -1;
+                Set<String> atomLiterals     = null;
+
+                index++;
+                switch (c)
+                {
+                    case '\\':
+                        literalCharacter = parseEscape();
+                        break;
+
+                    case '[':
+                        skipCharacterClass();
+                        break;
+
+                    case '(':
+                        atomLiterals = parseGroup();
+                        break;
+
+                    case '%':
+                        // Skip the frame information placeholder.
+                        if (index < expression.length())
+                        {
+                            index++;
+                        }
+                        else
+                        {
+                            literalCharacter = c;
+                        }
+                        break;
+
+                    case '.':
+                    case '^':
+                    case '$':
+                        break;
+
+                    default:
+                        literalCharacter = c;
+                        break;
+                }
+
+                // Parse a quantifier.
+                int     minimumCount = 1;
+                boolean repeated     = false;
+                switch (peek())
+                {
+                    case '?':
+                    case '*':
+                        index++;
+                        minimumCount = 0;
+                        repeated     = true;
+                        break;
+
+                    case '+':
+                        index++;
+                        repeated = true;
+                        break;
+
+                    case '{':
+                        index++;
+                        minimumCount = parseCount();
+                        repeated     = true;
+                        break;
+                }
+
+                if (repeated)
+                {
+                    // Skip a reluctant or possessive suffix.
+                    char suffix = peek();
+                    if (suffix == '?' || suffix == '+')
+                    {
+                        index++;
+                    }
+                }
+
+                if (literalCharacter >= 0 && minimumCount > 0)
+                {
+                    // A repeated character ends the literal string.
+                    literal.append((char)literalCharacter);
+                    if (repeated)
+                    {
+                        bestLiterals = better(bestLiterals, literal);
+                    }
+                }
+                else
+                {
+                    bestLiterals = better(bestLiterals, literal);
+                    if (atomLiterals != null && minimumCount > 0)
+                    {
+                        bestLiterals = better(bestLiterals, atomLiterals);
+                    }
+                }
+            }
+
+            return better(bestLiterals, literal);
+        }
+
+
+        /**
+         * Parses a group, after its opening parenthesis, returning the
+         * literals that it requires.
+         */
+        private Set<String> parseGroup()
+        {
+            boolean lookaround = false;
+            if (peek() == '?')
+            {
+                index++;
+                char c = peek();
+                if (c == ':' || c == '>' || c == '=' || c == '!')
+                {
+                    index++;
+                    lookaround = c == '=' || c == '!';
+                }
+                else if (c == '<')
+                {
+                    index++;
+                    c = peek();
+                    if (c == '=' || c == '!')
+                    {
+                        index++;
+                        lookaround = true;
+                    }
+                    else
+                    {
+                        // Skip the name of a named group.
+                        int nameEnd = expression.indexOf('>', index);
+                        if (nameEnd < 0)
+                        {
+                            throw new IllegalArgumentException("Unterminated group name");
+                        }
+
+                        index = nameEnd + 1;
+                    }
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unsupported inline flags");
+                }
+            }
+
+            Set<String> literals = parseAlternatives();
+            if (peek() != ')')
+            {
+                throw new IllegalArgumentException("Unterminated group");
+            }
+
+            index++;
+
+            return lookaround ? null : literals;
+        }
+
+
+        /**
+         * Parses an escape sequence, after its backslash, returning its
+         * literal character, or -1 if it doesn't represent a fixed
+         * character.
+         */
+        private int parseEscape()
+        {
+            if (index >= expression.length())
+            {
+                throw new IllegalArgumentException("Unterminated escape sequence");
+            }
+
+            char c = expression.charAt(index++);
+            if (!Character.isLetterOrDigit(c))
+            {
+                // FramePattern also expands placeholders after backslashes.
+                if (c == '%')
+                {
+                    throw new IllegalArgumentException("Escaped placeholder");
+                }
+
+                return c;
+            }
+
+            // Only accept the predefined classes and boundaries, which don't
+            // have any arguments.
+            if ("dDsSwWhHvVbBAzZGR".indexOf(c) < 0 || peek() == '{')
+            {
+                throw new IllegalArgumentException("Unsupported escape sequence");
+            }
+
+            return -1;
+        }
+
+
+        /**
+         * Skips a character class, after its opening bracket.
+         */
+        private void skipCharacterClass()
+        {
+            if (peek() == '^')
+            {
+                index++;
+            }
+
+            // A leading closing bracket is a literal character.
+            if (peek() == ']')
+            {
+                index++;
+            }
+
+            while (index < expression.length())
+            {
+                char c = expression.charAt(index++);
+                if (c == '\\')
+                {
+                    index++;
+                }
+                else if (c == '[')
+                {
+                    skipCharacterClass();
+                }
+                else if (c == ']')
+                {
+                    return;
+                }
+            }
+
+            throw new IllegalArgumentException("Unterminated character class");
+        }
+
+
+        /**
+         * Parses a bounded quantifier, after its opening brace, returning its
+         * minimum count.
+         */
+        private int parseCount()
+        {
+            int countEnd = expression.indexOf('}', index);
+            if (countEnd < 0)
+            {
+                throw new IllegalArgumentException("Unterminated quantifier");
+            }
+
+            int minimumEnd = expression.indexOf(',', index);
+            if (minimumEnd < 0 || minimumEnd > countEnd)
+            {
+                minimumEnd = countEnd;
+            }
+
+            int minimumCount = Integer.parseInt(expression.substring(index, minimumEnd));
+
+            index = countEnd + 1;
+
+            return minimumCount;
+        }
+
+
+        /**
+         * Returns the character at the current index, or 0 at the end of the
+         * expression.
+         */
+        private char peek()
+        {
+            return index < expression.length() ? expression.charAt(index) : 0;
+        }
+
+
+        /**
+         * Returns the better of the given literals and the given literal
+         * string, clearing the literal string.
+         */
+        private Set<String> better(Set<String> literals, StringBuilder literal)
+        {
+            if (literal.length() == 0)
+            {
+                return literals;
+            }
+
+            Set<String> literalSet = Collections.singleton(literal.toString());
+            literal.setLength(0);
+
+            return better(literals, literalSet);
+        }
+
+
+        /**
+         * Returns the better of the given sets of literals: the one whose
+         * shortest literal is longest, or else the smaller one.
+         */
+        private Set<String> better(Set<String> literals1, Set<String> literals2)
+        {
+            if (literals1 == null)
+            {
+                return literals2;
+            }
+
+            int length1 = shortestLength(literals1);
+            int length2 = shortestLength(literals2);
+
+            return length1 > length2 ||
+                   length1 == length2 && literals1.size() <= literals2.size() ?
+                literals1 :
+                literals2;
+        }
+
+
+        /**
+         * Returns the length of the shortest of the given literals.
+         */
+        private int shortestLength(Set<String> literals)
+        {
+            int length = Integer.MAX_VALUE;
+            for (String literal : literals)
+            {
+                length = Math.min(length, literal.length());
+            }
+
+            return length;
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.concurrent.*;
+
+/**
+ * This class caches loaded mappings, for instance for the different
+ * versions of an application, up to a maximum total weight. The weight of
+ * a mapping is the estimated size of its mapping store, in bytes.
+ * <p>
+ * The cache uses a W-TinyLFU policy: new mappings enter a small LRU window.
+ * Mappings that leave the window are only admitted to the main LRU queues
+ * if they have been requested more frequently than the mappings that they
+ * would evict, according to a compact frequency sketch. The main queues
+ * protect mappings that have been requested repeatedly.
+ * <p>
+ * Threads that request a mapping that is still being loaded wait for that
+ * load, instead of loading the mapping again. Evicted mappings aren't
+ * closed, since they may still be in use.
+ *
+ * @author F43nd1r
+ */
+public class MappingCache<K>
+{
+    private static final String MAPPING_ID_PREFIX = "# pg_map_id:";
+
+    // The queues of the entries.
+    private static final int NONE      = 0;
+    private static final int WINDOW    = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final long maximumWeight;
+    private final long windowMaximumWeight;
+    private final long protectedMaximumWeight;
+
+    private final ConcurrentMap<K,Entry> entries = new ConcurrentHashMap<K,Entry>();
+
+    // The policy, guarded by this cache.
+    private final FrequencySketch frequencySketch = new FrequencySketch();
+    private final Entry           window          = new Entry(null, null);
+    private final Entry           probation       = new Entry(null, null);
+    private final Entry           protectedQueue  = new Entry(null, null);
+    private long                  windowWeight;
+    private long                  probationWeight;
+    private long                  protectedWeight;
+
+
+    /**
+     * Creates a new MappingCache.
+     * @param maximumWeight the maximum total estimated size of the cached
+     *                      mapping stores, in bytes.
+     */
+    public MappingCache(long maximumWeight)
+    {
+        this.maximumWeight          = maximumWeight;
+        this.windowMaximumWeight    = Math.max(1L, maximumWeight / 100L);
+        this.protectedMaximumWeight = (maximumWeight - windowMaximumWeight) * 4L / 5L;
+    }
+
+
+    /**
+     * Returns the identity of the given mapping file: the value of its
+     * "pg_map_id" header, if present, or otherwise a hash of its contents.
+     */
+    public static String mappingId(File mappingFile) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM supports SHA-256.
+            throw new IOException(ex);
+        }
+
+        InputStream inputStream = new FileInputStream(mappingFile);
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+
+            // Look for the id in the header comments, at the start of the
+            // file.
+            int count = inputStream.read(buffer);
+            if (count > 0)
+            {
+                String mappingId = headerMappingId(buffer, count);
+                if (mappingId != null)
+                {
+                    return mappingId;
+                }
+            }
+
+            // Otherwise hash the contents.
+            while (count >= 0)
+            {
+                digest.update(buffer, 0, count);
+                count = inputStream.read(buffer);
+            }
+        }
+        finally
+        {
+            inputStream.close();
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                   .append(Character.forDigit( b       & 0xf, 16));
+        }
+
+        return builder.toString();
+    }
+
+
+    /**
+     * Returns the mapping with the given key, loading it with the given
+     * loader if it isn't cached yet.
+     */
+    public FrameRemapper get(K key, MappingLoader loader) throws IOException
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            Entry newEntry = new Entry(key, loader);
+
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null)
+            {
+                // Load the mapping in this thread.
+                newEntry.loadTask.run();
+
+                FrameRemapper mapper = mapper(newEntry);
+
+                add(newEntry, mapper.getMappingStore().getSize());
+
+                return mapper;
+            }
+        }
+
+        // Wait for the mapping, if it is still being loaded.
+        FrameRemapper mapper = mapper(entry);
+
+        access(entry);
+
+        return mapper;
+    }
+
+
+    /**
+     * Returns the cached mapping with the given key, or null if it isn't
+     * cached or still being loaded.
+     */
+    public FrameRemapper getIfPresent(K key) throws IOException
+    {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.loadTask.isDone())
+        {
+            return null;
+        }
+
+        FrameRemapper mapper = mapper(entry);
+
+        access(entry);
+
+        return mapper;
+    }
+
+
+    /**
+     * Removes the mapping with the given key from the cache.
+     */
+    public synchronized void invalidate(K key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry != null && entry.queue != NONE)
+        {
+            unlink(entry);
+        }
+    }
+
+
+    /**
+     * Returns the number of cached mappings, including the ones that are
+     * still being loaded.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     * Returns the total weight of the cached mappings, in bytes.
+     */
+    public synchronized long getWeight()
+    {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the loaded mapping of the given entry, waiting for it if
+     * necessary. Removes the entry if the mapping couldn't be loaded.
+     */
+    private FrameRemapper mapper(Entry entry) throws IOException
+    {
+        try
+        {
+            return entry.loadTask.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for mapping ["+entry.key+"]");
+        }
+        catch (ExecutionException ex)
+        {
+            entries.remove(entry.key, entry);
+
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+
+    /**
+     * Adds the given newly loaded entry to the window, evicting entries as
+     * necessary.
+     */
+    private synchronized void add(Entry entry, long weight)
+    {
+        frequencySketch.increment(entry.key.hashCode());
+
+        // Has the entry been invalidated in the meantime?
+        if (entries.get(entry.key) != entry)
+        {
+            return;
+        }
+
+        entry.weight = weight;
+        link(entry, WINDOW);
+
+        evict();
+    }
+
+
+    /**
+     * Records an access to the given entry.
+     */
+    private synchronized void access(Entry entry)
+    {
+        frequencySketch.increment(entry.key.hashCode());
+
+        switch (entry.queue)
+        {
+            case WINDOW:
+            case PROTECTED:
+                // Move the entry to the most recently used end.
+                int queue = entry.queue;
+                unlink(entry);
+                link(entry, queue);
+                break;
+
+            case PROBATION:
+                // Promote the entry, demoting the least recently used
+                // protected entries if necessary.
+                unlink(entry);
+                link(entry, PROTECTED);
+
+                while (protectedWeight > protectedMaximumWeight &&
+                       protectedQueue.next != entry)
+                {
+                    Entry demotedEntry = protectedQueue.next;
+                    unlink(demotedEntry);
+                    link(demotedEntry, PROBATION);
+                }
+                break;
+
+            default:
+                // The entry is still being added or it has been evicted.
+                break;
+        }
+    }
+
+
+    /**
+     * Evicts entries until the cache respects its maximum weight.
+     */
+    private void evict()
+    {
+        // Move the least recently used entries of the window to the
+        // probation queue, as candidates for the main queues.
+        while (windowWeight > windowMaximumWeight)
+        {
+            Entry candidate = window.next;
+            unlink(candidate);
+            link(candidate, PROBATION);
+
+            candidate.candidate = true;
+        }
+
+        // Let the most recent candidates compete with the least recently
+        // used entries of the main queues.
+        while (windowWeight + probationWeight + protectedWeight > maximumWeight)
+        {
+            Entry victim = probation.next      != probation      ? probation.next      :
+                           protectedQueue.next != protectedQueue ? protectedQueue.next :
+                                                                   window.next;
+
+            Entry candidate = probation.prev.candidate ? probation.prev : null;
+
+            if (candidate == null ||
+                candidate == victim)
+            {
+                remove(victim);
+            }
+            else if (candidate.weight > maximumWeight)
+            {
+                remove(candidate);
+            }
+            else if (victim.weight > maximumWeight ||
+                     frequencySketch.frequency(candidate.key.hashCode()) >
+                     frequencySketch.frequency(victim.key.hashCode()))
+            {
+                remove(victim);
+            }
+            else
+            {
+                remove(candidate);
+            }
+        }
+
+        // The remaining candidates have been admitted.
+        for (Entry entry = probation.prev; entry.candidate; entry = entry.prev)
+        {
+            entry.candidate = false;
+        }
+    }
+
+
+    /**
+     * Removes the given entry from the policy and from the cache.
+     */
+    private void remove(Entry entry)
+    {
+        unlink(entry);
+        entries.remove(entry.key, entry);
+    }
+
+
+    /**
+     * Adds the given entry at the most recently used end of the given queue.
+     */
+    private void link(Entry entry, int queue)
+    {
+        Entry head = queue == WINDOW    ? window    :
+                     queue == PROBATION ? probation :
+                                          protectedQueue;
+
+        entry.prev      = head.prev;
+        entry.next      = head;
+        head.prev.next  = entry;
+        head.prev       = entry;
+        entry.queue     = queue;
+
+        switch (queue)
+        {
+            case WINDOW:    windowWeight    += entry.weight; break;
+            case PROBATION: probationWeight += entry.weight; break;
+            default:        protectedWeight += entry.weight; break;
+        }
+    }
+
+
+    /**
+     * Removes the given entry from its queue.
+     */
+    private void unlink(Entry entry)
+    {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev      = null;
+        entry.next      = null;
+
+        switch (entry.queue)
+        {
+            case WINDOW:    windowWeight    -= entry.weight; break;
+            case PROBATION: probationWeight -= entry.weight; break;
+            default:        protectedWeight -= entry.weight; break;
+        }
+
+        entry.queue = NONE;
+    }
+
+
+    /**
+     * Returns the value of the "pg_map_id" header comment in the given
+     * start of a mapping file, or null if there isn't any.
+     */
+    private static String headerMappingId(byte[] buffer, int count)
+    {
+        int lineStart = 0;
+        while (lineStart < count && buffer[lineStart] == '#')
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < count && buffer[lineEnd] != '\n')
+            {
+                lineEnd++;
+            }
+
+            String line = new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8).trim();
+            if (line.startsWith(MAPPING_ID_PREFIX))
+            {
+                return line.substring(MAPPING_ID_PREFIX.length()).trim();
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * This interface loads a mapping for the cache.
+     */
+    public interface MappingLoader
+    {
+        /**
+         * Loads the mapping.
+         */
+        public FrameRemapper loadMapping() throws IOException;
+    }
+
+
+    /**
+     * A cached mapping, which may still be loading. It is also a node in one
+     * of the queues of the policy.
+     */
+    private class Entry
+    {
+        private final K                         key;
+        private final FutureTask<FrameRemapper> loadTask;
+
+        // The policy information, guarded by the cache.
+        private long    weight;
+        private int     queue;
+        private boolean candidate;
+        private Entry   prev = this;
+        private Entry   next = this;
+
+
+        private Entry(K key, final MappingLoader loader)
+        {
+            this.key      = key;
+            this.loadTask = loader == null ? null :
+                new FutureTask<FrameRemapper>(new Callable<FrameRemapper>()
+                {
+                    public FrameRemapper call() throws IOException
+                    {
+                        return loader.loadMapping();
+                    }
+                });
+        }
+    }
+
+
+    /**
+     * A count-min sketch that estimates how often keys have been requested,
+     * with 4 rows of 4-bit counters. The counters are halved periodically,
+     * so old requests count less than recent ones.
+     */
+    private static class FrequencySketch
+    {
+        private static final int  WIDTH       = 4096;
+        private static final int  SAMPLE_SIZE = 10 * WIDTH;
+        private static final int  MAX_COUNT   = 15;
+        private static final int[] SEEDS      = { 0x97cb3127, 0xb3f2e8f5, 0x3ad2aa39, 0xf1c3e6b9 };
+
+        private final byte[] counters = new byte[4 * WIDTH];
+        private int          additions;
+
+
+        private void increment(int hash)
+        {
+            boolean incremented = false;
+            for (int row = 0; row < 4; row++)
+            {
+                int index = index(hash, row);
+                if (counters[index] < MAX_COUNT)
+                {
+                    counters[index]++;
+                    incremented = true;
+                }
+            }
+
+            if (incremented && ++additions == SAMPLE_SIZE)
+            {
+                // Age all counters.
+                for (int index = 0; index < counters.length; index++)
+                {
+                    counters[index] >>= 1;
+                }
+
+                additions /= 2;
+            }
+        }
+
+
+        private int frequency(int hash)
+        {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < 4; row++)
+            {
+                frequency = Math.min(frequency, counters[index(hash, row)]);
+            }
+
+            return frequency;
+        }
+
+
+        private static int index(int hash, int row)
+        {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+            h ^= h >>> 16;
+
+            return row * WIDTH + (h & (WIDTH - 1));
+        }
+    }
+}
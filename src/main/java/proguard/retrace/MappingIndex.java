@@ -0,0 +1,496 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.Buffers;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.*;
+
+/**
+ * This MappingStore looks up mapping information straight from a binary
+ * index, as written by a MappingIndexWriter, typically in a memory-mapped
+ * file. It doesn't parse the index or create any objects for its entries;
+ * it only creates the names of the entries that it presents to visitors.
+ * <p>
+ * The index is validated when it is opened: an index with a different
+ * format version, a truncated index, or a corrupted index is rejected.
+ * An index that is opened along with its mapping file is also rejected if
+ * it was compiled from a different version of that file.
+ * The index is read-only, so a single instance can be shared by any number
+ * of threads.
+ *
+ * @see MappingIndexWriter
+ *
+ * @author F43nd1r
+ */
+public class MappingIndex implements MappingStore
+{
+    static final int MAGIC   = 0x52544958; // "RTIX"
+    static final int VERSION = 1;
+
+    // Sizes in bytes.
+    static final int HEADER_SIZE        = 5 * 4;
+    static final int COUNTS_SIZE        = 5 * 4;
+    static final int CLASS_ENTRY_SIZE   = 3 * 4;
+    static final int MEMBERS_ENTRY_SIZE = 6 * 4;
+    static final int FIELD_ENTRY_SIZE   = 5 * 4;
+    static final int METHOD_ENTRY_SIZE  = 10 * 4;
+
+    private final ByteBuffer buffer;
+    private final int        mappingChecksum;
+
+    private final int classCount;
+    private final int membersCount;
+
+    // The positions of the tables in the buffer.
+    private final int stringOffsetsStart;
+    private final int classTableStart;
+    private final int membersTableStart;
+    private final int fieldTableStart;
+    private final int methodTableStart;
+    private final int stringDataStart;
+
+
+    /**
+     * Opens the given index file, mapping it into memory. This doesn't check
+     * whether the index is still up to date with its mapping file.
+     * @see #open(File, File)
+     */
+    public static MappingIndex open(File indexFile) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            long        size    = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Mapping index too large ["+indexFile+"]");
+            }
+
+            return new MappingIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Opens the given index file, mapping it into memory, and checks that it
+     * was compiled from the current contents of the given mapping file.
+     * @param indexFile   the index file, as compiled by MappingIndexWriter.
+     * @param mappingFile the mapping file from which the index was compiled.
+     * @throws IOException if the index is invalid, or if it was compiled
+     *                     from a different version of the mapping file.
+     */
+    public static MappingIndex open(File indexFile, File mappingFile) throws IOException
+    {
+        MappingIndex mappingIndex = open(indexFile);
+
+        int mappingChecksum = checksum(mappingFile);
+        if (mappingIndex.mappingChecksum != mappingChecksum)
+        {
+            throw new IOException("Mapping index ["+indexFile+"] is out of date with mapping file ["+mappingFile+"]");
+        }
+
+        return mappingIndex;
+    }
+
+
+    /**
+     * Returns whether the given file starts like a mapping index.
+     */
+    public static boolean isMappingIndex(File file) throws IOException
+    {
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            return inputStream.readInt() == MAGIC;
+        }
+        catch (EOFException ex)
+        {
+            return false;
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+
+    /**
+     * Creates a new MappingIndex for the index in the given buffer, from its
+     * current position up to its limit.
+     * @throws IOException if the buffer doesn't contain a valid index in the
+     *                     supported format.
+     */
+    public MappingIndex(ByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer.slice();
+
+        // Check the header.
+        int size = this.buffer.limit();
+        if (size < HEADER_SIZE)
+        {
+            throw new IOException("Truncated mapping index ["+size+" bytes]");
+        }
+
+        int magic = this.buffer.getInt(0);
+        if (magic != MAGIC)
+        {
+            throw new IOException("Not a mapping index");
+        }
+
+        int version = this.buffer.getInt(4);
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported mapping index version ["+version+"], expected ["+VERSION+"]");
+        }
+
+        int payloadLength = this.buffer.getInt(8);
+        if (payloadLength != size - HEADER_SIZE)
+        {
+            throw new IOException("Truncated mapping index ["+size+" bytes], expected ["+(HEADER_SIZE + payloadLength)+" bytes]");
+        }
+
+        if (payloadLength < COUNTS_SIZE)
+        {
+            throw new IOException("Corrupt mapping index (missing tables)");
+        }
+
+        ByteBuffer payload = this.buffer.duplicate();
+        Buffers.position(payload, HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int)crc.getValue() != this.buffer.getInt(12))
+        {
+            throw new IOException("Corrupt mapping index (checksum mismatch)");
+        }
+
+        mappingChecksum = this.buffer.getInt(16);
+
+        // Locate the tables.
+        int stringCount = this.buffer.getInt(HEADER_SIZE);
+        classCount      = this.buffer.getInt(HEADER_SIZE + 4);
+        membersCount    = this.buffer.getInt(HEADER_SIZE + 8);
+        int fieldCount  = this.buffer.getInt(HEADER_SIZE + 12);
+        int methodCount = this.buffer.getInt(HEADER_SIZE + 16);
+
+        stringOffsetsStart = HEADER_SIZE        + COUNTS_SIZE;
+        classTableStart    = stringOffsetsStart + 4 * (stringCount + 1);
+        membersTableStart  = classTableStart    + CLASS_ENTRY_SIZE   * classCount;
+        fieldTableStart    = membersTableStart  + MEMBERS_ENTRY_SIZE * membersCount;
+        methodTableStart   = fieldTableStart    + FIELD_ENTRY_SIZE   * fieldCount;
+        stringDataStart    = methodTableStart   + METHOD_ENTRY_SIZE  * methodCount;
+
+        if (stringDataStart > size ||
+            stringDataStart + this.buffer.getInt(classTableStart - 4) > size)
+        {
+            throw new IOException("Corrupt mapping index (inconsistent table sizes)");
+        }
+    }
+
+
+    /**
+     * Returns the CRC-32 checksum of the mapping file from which the index
+     * was compiled, or 0 if it is not known.
+     */
+    public int getMappingChecksum()
+    {
+        return mappingChecksum;
+    }
+
+
+    // Implementations for MappingStore.
+
+    public String getOriginalClassName(String obfuscatedClassName)
+    {
+        int hash = obfuscatedClassName.hashCode();
+
+        for (int index = firstIndex(classTableStart, CLASS_ENTRY_SIZE, 0, classCount, hash);
+             index < classCount;
+             index++)
+        {
+            int entry = classTableStart + index * CLASS_ENTRY_SIZE;
+            if (buffer.getInt(entry) != hash)
+            {
+                break;
+            }
+
+            if (stringEquals(buffer.getInt(entry + 4), obfuscatedClassName))
+            {
+                return string(buffer.getInt(entry + 8));
+            }
+        }
+
+        return null;
+    }
+
+
+    public void fieldMappingsAccept(String               className,
+                                    String               obfuscatedFieldName,
+                                    MemberMappingVisitor visitor)
+    {
+        int membersEntry = membersEntry(className);
+        if (membersEntry >= 0)
+        {
+            int fieldStart = buffer.getInt(membersEntry + 8);
+            int fieldEnd   = buffer.getInt(membersEntry + 12) + fieldStart;
+            int hash       = obfuscatedFieldName.hashCode();
+
+            for (int index = firstIndex(fieldTableStart, FIELD_ENTRY_SIZE, fieldStart, fieldEnd, hash);
+                 index < fieldEnd;
+                 index++)
+            {
+                int entry = fieldTableStart + index * FIELD_ENTRY_SIZE;
+                if (buffer.getInt(entry) != hash)
+                {
+                    break;
+                }
+
+                if (stringEquals(buffer.getInt(entry + 4), obfuscatedFieldName))
+                {
+                    visitor.visitFieldMapping(string(buffer.getInt(entry + 8)),
+                                              string(buffer.getInt(entry + 12)),
+                                              string(buffer.getInt(entry + 16)));
+                }
+            }
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     MemberMappingVisitor visitor)
+    {
+        int membersEntry = membersEntry(className);
+        if (membersEntry >= 0)
+        {
+            int methodStart = buffer.getInt(membersEntry + 16);
+            int methodEnd   = buffer.getInt(membersEntry + 20) + methodStart;
+            int hash        = obfuscatedMethodName.hashCode();
+
+            for (int index = firstIndex(methodTableStart, METHOD_ENTRY_SIZE, methodStart, methodEnd, hash);
+                 index < methodEnd;
+                 index++)
+            {
+                int entry = methodTableStart + index * METHOD_ENTRY_SIZE;
+                if (buffer.getInt(entry) != hash)
+                {
+                    break;
+                }
+
+                int obfuscatedFirstLineNumber = buffer.getInt(entry + 8);
+                int obfuscatedLastLineNumber  = buffer.getInt(entry + 12);
+
+                if (LineNumbers.matches(obfuscatedLineNumber,
+                                        obfuscatedFirstLineNumber,
+                                        obfuscatedLastLineNumber) &&
+                    stringEquals(buffer.getInt(entry + 4), obfuscatedMethodName))
+                {
+                    visitor.visitMethodMapping(string(buffer.getInt(entry + 16)),
+                                               LineNumbers.originalLineNumber(obfuscatedLineNumber,
+                                                                              obfuscatedFirstLineNumber,
+                                                                              buffer.getInt(entry + 20),
+                                                                              buffer.getInt(entry + 24)),
+                                               string(buffer.getInt(entry + 28)),
+                                               string(buffer.getInt(entry + 32)),
+                                               string(buffer.getInt(entry + 36)));
+                }
+            }
+        }
+    }
+
+
+    public long getSize()
+    {
+        return buffer.capacity();
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the CRC-32 checksum of the given file, as stored in indices
+     * compiled from it.
+     */
+    private static int checksum(File file) throws IOException
+    {
+        CheckedInputStream inputStream =
+            new CheckedInputStream(new FileInputStream(file), new CRC32());
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            while (inputStream.read(buffer) >= 0)
+            {
+                // Just update the checksum.
+            }
+
+            return (int)inputStream.getChecksum().getValue();
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+
+    /**
+     * Returns the position of the class members entry of the given original
+     * class name, or -1 if the class doesn't have any members.
+     */
+    private int membersEntry(String className)
+    {
+        int hash = className.hashCode();
+
+        for (int index = firstIndex(membersTableStart, MEMBERS_ENTRY_SIZE, 0, membersCount, hash);
+             index < membersCount;
+             index++)
+        {
+            int entry = membersTableStart + index * MEMBERS_ENTRY_SIZE;
+            if (buffer.getInt(entry) != hash)
+            {
+                break;
+            }
+
+            if (stringEquals(buffer.getInt(entry + 4), className))
+            {
+                return entry;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Returns the index of the first entry with the given hash code in the
+     * given range of the given table, which is sorted by hash code, or the
+     * index at which such an entry would be inserted.
+     */
+    private int firstIndex(int tableStart,
+                           int entrySize,
+                           int startIndex,
+                           int endIndex,
+                           int hash)
+    {
+        while (startIndex < endIndex)
+        {
+            int middleIndex = (startIndex + endIndex) >>> 1;
+            if (buffer.getInt(tableStart + middleIndex * entrySize) < hash)
+            {
+                startIndex = middleIndex + 1;
+            }
+            else
+            {
+                endIndex = middleIndex;
+            }
+        }
+
+        return startIndex;
+    }
+
+
+    /**
+     * Returns the string with the given index in the string table.
+     */
+    private String string(int stringIndex)
+    {
+        int start = stringDataStart + buffer.getInt(stringOffsetsStart + 4 * stringIndex);
+        int end   = stringDataStart + buffer.getInt(stringOffsetsStart + 4 * stringIndex + 4);
+
+        byte[] bytes = new byte[end - start];
+
+        ByteBuffer stringBuffer = buffer.duplicate();
+        Buffers.position(stringBuffer, start);
+        stringBuffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns whether the string with the given index in the string table is
+     * equal to the given string, without creating the former.
+     */
+    private boolean stringEquals(int stringIndex, String string)
+    {
+        int position = stringDataStart + buffer.getInt(stringOffsetsStart + 4 * stringIndex);
+        int end      = stringDataStart + buffer.getInt(stringOffsetsStart + 4 * stringIndex + 4);
+
+        int length = string.length();
+        int index  = 0;
+        while (position < end)
+        {
+            int b = buffer.get(position++) & 0xff;
+
+            // Decode the UTF-8 character.
+            int c;
+            if (b < 0x80)
+            {
+                c = b;
+            }
+            else if (b < 0xe0)
+            {
+                c = ((b & 0x1f) << 6) |
+                    (buffer.get(position++) & 0x3f);
+            }
+            else if (b < 0xf0)
+            {
+                c = ((b & 0x0f) << 12) |
+                    ((buffer.get(position++) & 0x3f) << 6) |
+                    (buffer.get(position++) & 0x3f);
+            }
+            else
+            {
+                // Compare the supplementary character as a surrogate pair.
+                int codePoint = ((b & 0x07) << 18) |
+                                ((buffer.get(position++) & 0x3f) << 12) |
+                                ((buffer.get(position++) & 0x3f) << 6) |
+                                (buffer.get(position++) & 0x3f);
+
+                if (index >= length ||
+                    string.charAt(index++) != Character.highSurrogate(codePoint))
+                {
+                    return false;
+                }
+
+                c = Character.lowSurrogate(codePoint);
+            }
+
+            if (index >= length ||
+                string.charAt(index++) != c)
+            {
+                return false;
+            }
+        }
+
+        return index == length;
+    }
+}
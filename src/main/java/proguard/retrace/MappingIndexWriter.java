@@ -0,0 +1,458 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * This MappingProcessor collects mapping information and writes it out as a
+ * compact binary index, which a MappingIndex can then read without any
+ * parsing.
+ * <p>
+ * The index starts with a header containing a magic number, a format version,
+ * the length and CRC-32 checksum of the remaining data, and the CRC-32
+ * checksum of the original mapping file, if known. The remaining data contains
+ * the entry counts, a string table with UTF-8 names, and sorted tables of
+ * fixed-size entries that refer to the names by their indices:
+ * <ul>
+ * <li>classes: obfuscated name hash, obfuscated name, original name, sorted
+ *     by the hash code of the obfuscated name.</li>
+ * <li>class members: original name hash, original name, field start, field
+ *     count, method start, method count, sorted by the hash code of the
+ *     original name.</li>
+ * <li>fields: obfuscated name hash, obfuscated name, original class name,
+ *     original type, original name.</li>
+ * <li>methods: obfuscated name hash, obfuscated name, obfuscated first and
+ *     last line numbers, original class name, original first and last line
+ *     numbers, original type, original name, original arguments.</li>
+ * </ul>
+ * The fields and methods of each class are sorted by the hash codes of their
+ * obfuscated names, retaining the order of the mapping file otherwise.
+ *
+ * @see MappingIndex
+ *
+ * @author F43nd1r
+ */
+public class MappingIndexWriter implements MappingProcessor
+{
+    private static final String USAGE = "Usage: java proguard.retrace.MappingIndexWriter <mapping_file> <index_file>";
+
+    private static final Comparator<int[]> HASH_COMPARATOR = new Comparator<int[]>()
+    {
+        public int compare(int[] entry1, int[] entry2)
+        {
+            return Integer.compare(entry1[0], entry2[0]);
+        }
+    };
+
+    // Names, their indices in the string table, and their UTF-8 encodings.
+    private final Map<String,Integer> stringIndices = new HashMap<String,Integer>();
+    private final List<byte[]>        strings       = new ArrayList<byte[]>();
+    private long                      stringDataLength;
+
+    // Obfuscated class name -> original class name.
+    private final Map<String,String>  classMap      = new HashMap<String,String>();
+
+    // Original class name -> member entries.
+    private final Map<String,Members> classMembers  = new LinkedHashMap<String,Members>();
+
+    private int fieldCount;
+    private int methodCount;
+    private int mappingChecksum;
+
+
+    /**
+     * Compiles the given mapping file into the given index file.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println(USAGE);
+            System.exit(-1);
+        }
+
+        try
+        {
+            compile(new File(args[0]), new File(args[1]));
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Error: " + ex.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+
+    /**
+     * Compiles the given mapping file into the given index file.
+     * @param mappingFile the mapping file that was written out by ProGuard.
+     * @param indexFile   the index file to be written.
+     */
+    public static void compile(File mappingFile, File indexFile) throws IOException
+    {
+        // Read the mapping file, computing its checksum along the way.
+        CheckedInputStream mappingInput =
+            new CheckedInputStream(new FileInputStream(mappingFile), new CRC32());
+
+        MappingIndexWriter writer = new MappingIndexWriter();
+
+        new MappingReader(mappingInput).pump(writer);
+
+        writer.setMappingChecksum((int)mappingInput.getChecksum().getValue());
+        writer.write(indexFile);
+    }
+
+
+    /**
+     * Sets the checksum of the original mapping file, which is stored in the
+     * index, so the index can be matched against its mapping file later on.
+     */
+    public void setMappingChecksum(int mappingChecksum)
+    {
+        this.mappingChecksum = mappingChecksum;
+    }
+
+
+    /**
+     * Returns the size of the index in bytes, with the information that has
+     * been collected so far.
+     */
+    public int getSize()
+    {
+        long size =
+            MappingIndex.HEADER_SIZE          +
+            MappingIndex.COUNTS_SIZE          +
+            4L * (strings.size() + 1)         +
+            (long)MappingIndex.CLASS_ENTRY_SIZE  * classMap.size()     +
+            (long)MappingIndex.MEMBERS_ENTRY_SIZE * classMembers.size() +
+            (long)MappingIndex.FIELD_ENTRY_SIZE  * fieldCount          +
+            (long)MappingIndex.METHOD_ENTRY_SIZE * methodCount         +
+            align(stringDataLength);
+
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("Mapping index too large ["+size+" bytes]");
+        }
+
+        return (int)size;
+    }
+
+
+    /**
+     * Writes the index to the given file.
+     */
+    public void write(File indexFile) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(getSize());
+        write(buffer);
+        Buffers.flip(buffer);
+
+        FileOutputStream outputStream = new FileOutputStream(indexFile);
+        try
+        {
+            FileChannel channel = outputStream.getChannel();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+
+    /**
+     * Writes the index into the given buffer, starting at its current
+     * position. The buffer must have at least {@link #getSize()} bytes
+     * remaining.
+     */
+    public void write(ByteBuffer buffer)
+    {
+        int headerPosition = buffer.position();
+        int size           = getSize();
+
+        // Write the header, with a placeholder for the checksum.
+        buffer.putInt(MappingIndex.MAGIC);
+        buffer.putInt(MappingIndex.VERSION);
+        buffer.putInt(size - MappingIndex.HEADER_SIZE);
+        buffer.putInt(0);
+        buffer.putInt(mappingChecksum);
+
+        int payloadPosition = buffer.position();
+
+        // Collect and sort the class entries.
+        List<int[]> classEntries = new ArrayList<int[]>(classMap.size());
+        for (Map.Entry<String,String> entry : classMap.entrySet())
+        {
+            String obfuscatedClassName = entry.getKey();
+            classEntries.add(new int[]
+            {
+                obfuscatedClassName.hashCode(),
+                stringIndex(obfuscatedClassName),
+                stringIndex(entry.getValue())
+            });
+        }
+        Collections.sort(classEntries, HASH_COMPARATOR);
+
+        // Collect and sort the class member entries.
+        List<int[]>         membersEntries = new ArrayList<int[]>(classMembers.size());
+        List<List<int[]>>   fieldEntries   = new ArrayList<List<int[]>>(classMembers.size());
+        List<List<int[]>>   methodEntries  = new ArrayList<List<int[]>>(classMembers.size());
+        int fieldStart  = 0;
+        int methodStart = 0;
+        for (Map.Entry<String,Members> entry : classMembers.entrySet())
+        {
+            String  className = entry.getKey();
+            Members members   = entry.getValue();
+
+            Collections.sort(members.fields,  HASH_COMPARATOR);
+            Collections.sort(members.methods, HASH_COMPARATOR);
+
+            membersEntries.add(new int[]
+            {
+                className.hashCode(),
+                stringIndex(className),
+                fieldStart,
+                members.fields.size(),
+                methodStart,
+                members.methods.size()
+            });
+
+            fieldEntries.add(members.fields);
+            methodEntries.add(members.methods);
+
+            fieldStart  += members.fields.size();
+            methodStart += members.methods.size();
+        }
+        Collections.sort(membersEntries, HASH_COMPARATOR);
+
+        // Write the counts.
+        buffer.putInt(strings.size());
+        buffer.putInt(classEntries.size());
+        buffer.putInt(membersEntries.size());
+        buffer.putInt(fieldStart);
+        buffer.putInt(methodStart);
+
+        // Write the string offsets.
+        int stringOffset = 0;
+        buffer.putInt(stringOffset);
+        for (byte[] string : strings)
+        {
+            stringOffset += string.length;
+            buffer.putInt(stringOffset);
+        }
+
+        // Write the tables.
+        for (int[] classEntry : classEntries)
+        {
+            putInts(buffer, classEntry, classEntry.length);
+        }
+
+        for (int[] membersEntry : membersEntries)
+        {
+            putInts(buffer, membersEntry, membersEntry.length);
+        }
+
+        // The field and method tables are in the original order of the
+        // classes.
+        for (List<int[]> fields : fieldEntries)
+        {
+            for (int[] fieldEntry : fields)
+            {
+                putInts(buffer, fieldEntry, fieldEntry.length);
+            }
+        }
+
+        for (List<int[]> methods : methodEntries)
+        {
+            for (int[] methodEntry : methods)
+            {
+                putInts(buffer, methodEntry, methodEntry.length);
+            }
+        }
+
+        // Write the string data, padded to a multiple of 4 bytes.
+        for (byte[] string : strings)
+        {
+            buffer.put(string);
+        }
+        for (int padding = align(stringOffset) - stringOffset; padding > 0; padding--)
+        {
+            buffer.put((byte)0);
+        }
+
+        // Fill out the checksum of the payload.
+        ByteBuffer payload = buffer.duplicate();
+        Buffers.position(payload, payloadPosition);
+        Buffers.limit(payload, headerPosition + size);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        buffer.putInt(headerPosition + 12, (int)crc.getValue());
+    }
+
+
+    // Implementations for MappingProcessor.
+
+    public boolean processClassMapping(String className,
+                                       String newClassName)
+    {
+        // Obfuscated class name -> original class name.
+        classMap.put(newClassName, className);
+
+        stringIndex(className);
+        stringIndex(newClassName);
+
+        return true;
+    }
+
+
+    public void processFieldMapping(String className,
+                                    String fieldType,
+                                    String fieldName,
+                                    String newClassName,
+                                    String newFieldName)
+    {
+        fieldCount++;
+        members(newClassName).fields.add(new int[]
+        {
+            newFieldName.hashCode(),
+            stringIndex(newFieldName),
+            stringIndex(className),
+            stringIndex(fieldType),
+            stringIndex(fieldName)
+        });
+    }
+
+
+    public void processMethodMapping(String className,
+                                     int    firstLineNumber,
+                                     int    lastLineNumber,
+                                     String methodReturnType,
+                                     String methodName,
+                                     String methodArguments,
+                                     String newClassName,
+                                     int    newFirstLineNumber,
+                                     int    newLastLineNumber,
+                                     String newMethodName)
+    {
+        methodCount++;
+        members(newClassName).methods.add(new int[]
+        {
+            newMethodName.hashCode(),
+            stringIndex(newMethodName),
+            newFirstLineNumber,
+            newLastLineNumber,
+            stringIndex(className),
+            firstLineNumber,
+            lastLineNumber,
+            stringIndex(methodReturnType),
+            stringIndex(methodName),
+            stringIndex(methodArguments)
+        });
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the member entries of the given original class name, creating
+     * them if necessary.
+     */
+    private Members members(String className)
+    {
+        Members members = classMembers.get(className);
+        if (members == null)
+        {
+            members = new Members();
+            classMembers.put(className, members);
+
+            stringIndex(className);
+        }
+
+        return members;
+    }
+
+
+    /**
+     * Returns the index of the given name in the string table, adding it if
+     * necessary.
+     */
+    private int stringIndex(String string)
+    {
+        Integer index = stringIndices.get(string);
+        if (index == null)
+        {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+            index = Integer.valueOf(strings.size());
+            stringIndices.put(string, index);
+            strings.add(bytes);
+            stringDataLength += bytes.length;
+        }
+
+        return index.intValue();
+    }
+
+
+    private static long align(long length)
+    {
+        return (length + 3L) & ~3L;
+    }
+
+
+    private static int align(int length)
+    {
+        return (length + 3) & ~3;
+    }
+
+
+    private static void putInts(ByteBuffer buffer, int[] values, int count)
+    {
+        for (int index = 0; index < count; index++)
+        {
+            buffer.putInt(values[index]);
+        }
+    }
+
+
+    /**
+     * The field and method entries of a single class.
+     */
+    private static class Members
+    {
+        private final List<int[]> fields  = new ArrayList<int[]>();
+        private final List<int[]> methods = new ArrayList<int[]>();
+    }
+}
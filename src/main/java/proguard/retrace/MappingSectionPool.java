@@ -0,0 +1,220 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.lang.ref.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+
+/**
+ * This class pools the parsed class members of mapping files by the
+ * contents of their class sections, so that DeduplicatedMappingStore
+ * instances for different versions of the same application share the
+ * classes that haven't changed between the versions.
+ * <p>
+ * A section is identified by a SHA-256 hash of its original class name and
+ * its class member lines. The pool only keeps weak references to the
+ * parsed class members, so the sections that are no longer used by any
+ * store are garbage collected.
+ *
+ * @see DeduplicatedMappingStore
+ *
+ * @author F43nd1r
+ */
+public class MappingSectionPool
+{
+    private final Map<SectionKey,SectionReference> sections       = new HashMap<SectionKey,SectionReference>();
+    private final ReferenceQueue<HeapMappingStore> referenceQueue = new ReferenceQueue<HeapMappingStore>();
+
+
+    /**
+     * Returns the number of sections in the pool.
+     */
+    public synchronized int size()
+    {
+        expungeStaleSections();
+
+        return sections.size();
+    }
+
+
+    /**
+     * Returns an estimate of the number of bytes that the sections in the
+     * pool retain.
+     */
+    public synchronized long getSize()
+    {
+        expungeStaleSections();
+
+        long size = 0L;
+        for (SectionReference reference : sections.values())
+        {
+            HeapMappingStore members = reference.get();
+            if (members != null)
+            {
+                size += HeapMappingStore.MAP_ENTRY_SIZE + members.getSize();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Returns the key of the given class section.
+     * @param className     the original class name of the section.
+     * @param memberSection the class member lines of the section.
+     */
+    static SectionKey sectionKey(String className, ByteBuffer memberSection)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM supports SHA-256.
+            throw new IllegalStateException(ex);
+        }
+
+        digest.update(className.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)'\n');
+        digest.update(memberSection.duplicate());
+
+        return new SectionKey(digest.digest());
+    }
+
+
+    /**
+     * Returns the pooled class members with the given key, or null if the
+     * pool doesn't contain them.
+     */
+    synchronized HeapMappingStore get(SectionKey key)
+    {
+        expungeStaleSections();
+
+        SectionReference reference = sections.get(key);
+
+        return reference == null ? null : reference.get();
+    }
+
+
+    /**
+     * Adds the given class members with the given key, unless the pool
+     * already contains class members with that key. Returns the pooled
+     * class members.
+     */
+    synchronized HeapMappingStore putIfAbsent(SectionKey       key,
+                                              HeapMappingStore members)
+    {
+        expungeStaleSections();
+
+        SectionReference reference = sections.get(key);
+        if (reference != null)
+        {
+            HeapMappingStore pooledMembers = reference.get();
+            if (pooledMembers != null)
+            {
+                return pooledMembers;
+            }
+        }
+
+        sections.put(key, new SectionReference(key, members, referenceQueue));
+
+        return members;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Removes the sections that have been garbage collected.
+     */
+    private void expungeStaleSections()
+    {
+        Reference<? extends HeapMappingStore> reference;
+        while ((reference = referenceQueue.poll()) != null)
+        {
+            SectionKey key = ((SectionReference)reference).key;
+
+            // Only remove the section if it hasn't been replaced.
+            if (sections.get(key) == reference)
+            {
+                sections.remove(key);
+            }
+        }
+    }
+
+
+    /**
+     * The hash of a class section.
+     */
+    static class SectionKey
+    {
+        private final byte[] digest;
+        private final int    hashCode;
+
+
+        private SectionKey(byte[] digest)
+        {
+            this.digest   = digest;
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+
+        // Implementations for Object.
+
+        public boolean equals(Object object)
+        {
+            return object instanceof SectionKey &&
+                   Arrays.equals(digest, ((SectionKey)object).digest);
+        }
+
+
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+
+    /**
+     * A weak reference to pooled class members, which remembers its key.
+     */
+    private static class SectionReference
+    extends              WeakReference<HeapMappingStore>
+    {
+        private final SectionKey key;
+
+
+        private SectionReference(SectionKey                     key,
+                                 HeapMappingStore               members,
+                                 ReferenceQueue<HeapMappingStore> referenceQueue)
+        {
+            super(members, referenceQueue);
+
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class splits a mapping file into the sections of its classes,
+ * without parsing their class members. It reads the class mappings and
+ * remembers the offsets of the sections, which can then be parsed
+ * separately.
+ *
+ * @author F43nd1r
+ */
+class MappingSections
+{
+    private final ByteBuffer mapping;
+
+    // Obfuscated class name -> original class name.
+    private final Map<String,String>  classMap       = new HashMap<String,String>();
+
+    // Original class name -> index of its section in the mapping file.
+    private final Map<String,Integer> sectionIndices = new HashMap<String,Integer>();
+
+    // The start offsets of all class sections, plus the end of the file.
+    private final int[] sectionOffsets;
+
+
+    /**
+     * Creates a new MappingSections for the mapping file in the given buffer,
+     * from its current position up to its limit. The buffer must not be
+     * modified while the sections are in use.
+     */
+    public MappingSections(ByteBuffer mapping)
+    {
+        this.mapping        = mapping.slice();
+        this.sectionOffsets = readClassMappings();
+    }
+
+
+    /**
+     * Returns the original name of the given obfuscated class, or null if
+     * the class isn't mapped.
+     */
+    public String getOriginalClassName(String obfuscatedClassName)
+    {
+        return classMap.get(obfuscatedClassName);
+    }
+
+
+    /**
+     * Returns the obfuscated class name -> original class name map.
+     */
+    public Map<String,String> getClassMap()
+    {
+        return classMap;
+    }
+
+
+    /**
+     * Returns the original class names of all classes with sections.
+     */
+    public Set<String> getClassNames()
+    {
+        return sectionIndices.keySet();
+    }
+
+
+    /**
+     * Returns the index of the section of the given original class, or -1
+     * if the class isn't mapped.
+     */
+    public int sectionIndex(String className)
+    {
+        Integer sectionIndex = sectionIndices.get(className);
+
+        return sectionIndex == null ? -1 : sectionIndex.intValue();
+    }
+
+
+    /**
+     * Returns the contents of the section with the given index, starting
+     * with its class mapping line.
+     */
+    public ByteBuffer section(int sectionIndex)
+    {
+        ByteBuffer section = mapping.duplicate();
+        Buffers.position(section, sectionOffsets[sectionIndex]);
+        Buffers.limit(section, sectionOffsets[sectionIndex + 1]);
+
+        return section;
+    }
+
+
+    /**
+     * Returns the contents of the section with the given index, without its
+     * class mapping line.
+     */
+    public ByteBuffer memberSection(int sectionIndex)
+    {
+        ByteBuffer section = section(sectionIndex);
+
+        int position = section.position();
+        int limit    = section.limit();
+        byte b;
+        while (position < limit &&
+               (b = section.get(position)) != '\n' &&
+               b != '\r')
+        {
+            position++;
+        }
+
+        Buffers.position(section, position);
+
+        return section;
+    }
+
+
+    /**
+     * Returns an estimate of the number of bytes that these sections
+     * retain, including the mapping file.
+     */
+    public long getSize()
+    {
+        return mapping.capacity()                                            +
+               4L * sectionOffsets.length                                    +
+               (long)HeapMappingStore.MAP_ENTRY_SIZE * classMap.size()       +
+               (long)HeapMappingStore.MAP_ENTRY_SIZE * sectionIndices.size();
+    }
+
+
+    /**
+     * Parses the class section with the given index, returning the frozen
+     * class members.
+     */
+    public HeapMappingStore parseSection(int sectionIndex)
+    {
+        HeapMappingStore members = new HeapMappingStore();
+
+        try
+        {
+            new MappingReader(section(sectionIndex)).pump(members);
+        }
+        catch (IOException ex)
+        {
+            // This shouldn't happen, since we're reading from memory.
+            throw new UncheckedIOException(ex);
+        }
+
+        members.freeze();
+
+        return members;
+    }
+
+
+    /**
+     * Reads the class mappings of the mapping file, returning the offsets of
+     * their sections, followed by the length of the file.
+     */
+    private int[] readClassMappings()
+    {
+        int[] offsets     = new int[1024];
+        int   offsetCount = 0;
+
+        byte[] line = new byte[256];
+
+        int length    = mapping.limit();
+        int lineStart = 0;
+        while (lineStart < length)
+        {
+            // Find the end of the line.
+            int lineEnd = lineStart;
+            byte b;
+            while (lineEnd < length &&
+                   (b = mapping.get(lineEnd)) != '\n' &&
+                   b != '\r')
+            {
+                lineEnd++;
+            }
+
+            // Trim the line.
+            int trimmedStart = lineStart;
+            while (trimmedStart < lineEnd && (mapping.get(trimmedStart) & 0xff) <= ' ')
+            {
+                trimmedStart++;
+            }
+
+            int trimmedEnd = lineEnd;
+            while (trimmedEnd > trimmedStart && (mapping.get(trimmedEnd - 1) & 0xff) <= ' ')
+            {
+                trimmedEnd--;
+            }
+
+            // Is it a class mapping?
+            if (trimmedEnd > trimmedStart              &&
+                mapping.get(trimmedStart)   != '#'     &&
+                mapping.get(trimmedEnd - 1) == ':')
+            {
+                int lineLength = trimmedEnd - trimmedStart;
+                if (line.length < lineLength)
+                {
+                    line = new byte[lineLength * 2];
+                }
+
+                for (int index = 0; index < lineLength; index++)
+                {
+                    line[index] = mapping.get(trimmedStart + index);
+                }
+
+                processClassMapping(line, lineLength, offsetCount);
+
+                // Start a new section, even if the class mapping is invalid,
+                // so its class members are ignored.
+                if (offsetCount == offsets.length)
+                {
+                    offsets = Arrays.copyOf(offsets, offsetCount * 2);
+                }
+
+                offsets[offsetCount++] = lineStart;
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        // Close off the last section.
+        offsets = Arrays.copyOf(offsets, offsetCount + 1);
+        offsets[offsetCount] = length;
+
+        return offsets;
+    }
+
+
+    /**
+     * Parses the given class mapping line and records the results, in the
+     * same way as MappingReader.
+     */
+    private void processClassMapping(byte[] line, int lineLength, int sectionIndex)
+    {
+        // See if we can parse "___ -> ___:", containing the original
+        // class name and the new class name.
+        int arrowIndex = indexOf(line, 0, lineLength, (byte)'-');
+        while (arrowIndex >= 0 &&
+               (arrowIndex + 1 >= lineLength || line[arrowIndex + 1] != '>'))
+        {
+            arrowIndex = indexOf(line, arrowIndex + 1, lineLength, (byte)'-');
+        }
+
+        if (arrowIndex < 0)
+        {
+            return;
+        }
+
+        int colonIndex = indexOf(line, arrowIndex + 2, lineLength, (byte)':');
+        if (colonIndex < 0)
+        {
+            return;
+        }
+
+        // Extract the elements.
+        String className    = new String(line, 0, arrowIndex, StandardCharsets.UTF_8).trim();
+        String newClassName = new String(line, arrowIndex + 2, colonIndex - arrowIndex - 2, StandardCharsets.UTF_8).trim();
+
+        classMap.put(newClassName, className);
+        sectionIndices.put(className, Integer.valueOf(sectionIndex));
+    }
+
+
+    private static int indexOf(byte[] bytes, int start, int end, byte b)
+    {
+        for (int index = start; index < end; index++)
+        {
+            if (bytes[index] == b)
+            {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Maps the given file into memory.
+     */
+    static ByteBuffer map(File file) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            long        size    = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Mapping file too large ["+file+"]");
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * This interface provides the mapping information that a FrameRemapper
+ * looks up while transforming stack frames. Implementations may keep the
+ * information on the heap or read it straight from a compiled mapping index.
+ *
+ * @see FrameRemapper
+ *
+ * @author F43nd1r
+ */
+public interface MappingStore
+{
+    /**
+     * Returns the original name of the given obfuscated class, or null if
+     * the class isn't mapped.
+     */
+    public String getOriginalClassName(String obfuscatedClassName);
+
+
+    /**
+     * Lets the given visitor visit all field mappings of the given class that
+     * have the given obfuscated field name, in the order of the mapping file.
+     * @param className           the original class name.
+     * @param obfuscatedFieldName the obfuscated field name.
+     * @param visitor             the visitor that will visit the mappings.
+     */
+    public void fieldMappingsAccept(String               className,
+                                    String               obfuscatedFieldName,
+                                    MemberMappingVisitor visitor);
+
+
+    /**
+     * Lets the given visitor visit all method mappings of the given class that
+     * have the given obfuscated method name and that contain the given
+     * obfuscated line number, in the order of the mapping file.
+     * @param className            the original class name.
+     * @param obfuscatedMethodName the obfuscated method name.
+     * @param obfuscatedLineNumber the obfuscated line number, or 0 if it is
+     *                             not known.
+     * @param visitor              the visitor that will visit the mappings.
+     */
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     MemberMappingVisitor visitor);
+
+
+    /**
+     * Returns an estimate of the number of bytes that this store retains,
+     * on or off the heap.
+     */
+    public long getSize();
+}
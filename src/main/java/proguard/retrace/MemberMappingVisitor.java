@@ -0,0 +1,59 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+/**
+ * This interface specifies methods to visit the original versions of
+ * obfuscated class members, as provided by a MappingStore.
+ *
+ * @see MappingStore
+ *
+ * @author F43nd1r
+ */
+public interface MemberMappingVisitor
+{
+    /**
+     * Visits the original version of an obfuscated field.
+     * @param originalClassName the original class name.
+     * @param originalType      the original external field type.
+     * @param originalName      the original field name.
+     */
+    public void visitFieldMapping(String originalClassName,
+                                  String originalType,
+                                  String originalName);
+
+
+    /**
+     * Visits the original version of an obfuscated method.
+     * @param originalClassName  the original class name.
+     * @param originalLineNumber the original line number that corresponds to
+     *                           the obfuscated line number, or 0 if it is
+     *                           not known.
+     * @param originalType       the original external method return type.
+     * @param originalName       the original method name.
+     * @param originalArguments  the original external method arguments.
+     */
+    public void visitMethodMapping(String originalClassName,
+                                   int    originalLineNumber,
+                                   String originalType,
+                                   String originalName,
+                                   String originalArguments);
+}
@@ -0,0 +1,282 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This MappingStore keeps its mapping information outside of the Java heap,
+ * in a direct or memory-mapped buffer with the format of a MappingIndex.
+ * The information is compact and read-only, and it doesn't add any work
+ * for the garbage collector, which makes it suitable for keeping many
+ * large mappings loaded, for instance:
+ * <pre>
+ *     OffHeapMappingStore store =
+ *         OffHeapMappingStore.load(new MappingReader(mappingFile));
+ *     FrameRemapper mapper = new FrameRemapper(store);
+ *     ...
+ *     store.close();
+ * </pre>
+ * Closing the store frees its memory right away, or as soon as the lookups
+ * that are still in progress have finished. Lookups in a closed store
+ * throw an IllegalStateException.
+ *
+ * @see MappingIndex
+ *
+ * @author F43nd1r
+ */
+public class OffHeapMappingStore
+implements   MappingStore,
+             Closeable
+{
+    private final ByteBuffer    buffer;
+    private final MappingIndex  mappingIndex;
+
+    // The number of references to the buffer: one for the open store, plus
+    // one for every lookup in progress.
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed     = new AtomicBoolean();
+
+
+    /**
+     * Reads the mapping information from the given mapping reader into a
+     * new direct buffer.
+     */
+    public static OffHeapMappingStore load(MappingReader mappingReader) throws IOException
+    {
+        MappingIndexWriter writer = new MappingIndexWriter();
+        mappingReader.pump(writer);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(writer.getSize());
+        writer.write(buffer);
+        Buffers.flip(buffer);
+
+        return new OffHeapMappingStore(buffer);
+    }
+
+
+    /**
+     * Opens the given index file, as written by a MappingIndexWriter,
+     * mapping it into memory.
+     */
+    public static OffHeapMappingStore open(File indexFile) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            long        size    = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Mapping index too large ["+indexFile+"]");
+            }
+
+            return new OffHeapMappingStore(channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Creates a new OffHeapMappingStore for the index in the given buffer,
+     * which is typically a direct or memory-mapped buffer. The store takes
+     * ownership of the buffer: it frees the buffer when it is closed.
+     * @throws IOException if the buffer doesn't contain a valid index.
+     */
+    public OffHeapMappingStore(ByteBuffer buffer) throws IOException
+    {
+        this.buffer       = buffer;
+        this.mappingIndex = new MappingIndex(buffer);
+    }
+
+
+    /**
+     * Returns the size of the mapping information in bytes.
+     */
+    public long getSize()
+    {
+        return buffer.capacity();
+    }
+
+
+    /**
+     * Returns whether the store has been closed.
+     */
+    public boolean isClosed()
+    {
+        return closed.get();
+    }
+
+
+    // Implementations for Closeable.
+
+    public void close()
+    {
+        if (closed.compareAndSet(false, true))
+        {
+            release();
+        }
+    }
+
+
+    // Implementations for MappingStore.
+
+    public String getOriginalClassName(String obfuscatedClassName)
+    {
+        acquire();
+        try
+        {
+            return mappingIndex.getOriginalClassName(obfuscatedClassName);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    public void fieldMappingsAccept(String               className,
+                                    String               obfuscatedFieldName,
+                                    MemberMappingVisitor visitor)
+    {
+        acquire();
+        try
+        {
+            mappingIndex.fieldMappingsAccept(className,
+                                             obfuscatedFieldName,
+                                             visitor);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    public void methodMappingsAccept(String               className,
+                                     String               obfuscatedMethodName,
+                                     int                  obfuscatedLineNumber,
+                                     MemberMappingVisitor visitor)
+    {
+        acquire();
+        try
+        {
+            mappingIndex.methodMappingsAccept(className,
+                                              obfuscatedMethodName,
+                                              obfuscatedLineNumber,
+                                              visitor);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Adds a reference to the buffer, for a lookup.
+     */
+    private void acquire()
+    {
+        while (true)
+        {
+            int count = references.get();
+            if (count == 0)
+            {
+                throw new IllegalStateException("The mapping store is closed");
+            }
+
+            if (references.compareAndSet(count, count + 1))
+            {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Removes a reference to the buffer, freeing the buffer when it was the
+     * last one.
+     */
+    private void release()
+    {
+        if (references.decrementAndGet() == 0)
+        {
+            free(buffer);
+        }
+    }
+
+
+    /**
+     * Frees the memory of the given direct or memory-mapped buffer, if the
+     * JVM allows it. Otherwise, the memory is only freed once the garbage
+     * collector finds the buffer.
+     */
+    private static void free(ByteBuffer buffer)
+    {
+        if (!buffer.isDirect())
+        {
+            return;
+        }
+
+        try
+        {
+            // Java 9 and higher.
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method   method      = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field    field       = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            method.invoke(field.get(null), buffer);
+            return;
+        }
+        catch (Exception ignored)
+        {
+            // Fall back to the Java 8 way.
+        }
+
+        try
+        {
+            // Java 8.
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null)
+            {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        }
+        catch (Exception ignored)
+        {
+            // Leave the buffer to the garbage collector.
+        }
+    }
+}
@@ -20,7 +20,9 @@
  */
 package proguard.retrace;
 
+import proguard.obfuscate.ClassMappingFilter;
 import proguard.obfuscate.MappingReader;
+import proguard.obfuscate.ParallelMappingReader;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -32,7 +34,13 @@ import java.io.LineNumberReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -43,27 +51,147 @@ import java.util.Iterator;
 @SuppressWarnings("WeakerAccess")
 public class ReTrace {
     public static final String STACK_TRACE_EXPRESSION = "(?:.*?\\bat\\s+%c\\.%m\\s*\\(%s(?::%l)?\\)\\s*(?:~\\[.*\\])?)|(?:(?:.*?[:\"]\\s+)?%c(?::.*)?)";
-    private static final String USAGE = "Usage: java proguard.retrace.ReTrace [-regex <regex>] [-verbose] <mapping_file> [<stacktrace_file>]";
+    public static final String INLINE_FRAME_EXPRESSION = "(?:(?<=\\\\t)|\\b)at\\s+%c\\.%m\\s*\\(%s(?::%l)?\\)";
+    private static final String USAGE = "Usage: java proguard.retrace.ReTrace [-regex <regex>]... [-verbose] [-twopass] [-inline] [-maxlinelength <length>] [-matchbudget <count>] [-grep <original_symbol>] <mapping_file|index_file> [<stacktrace_file>]";
     private static final String REGEX_OPTION = "-regex";
     private static final String VERBOSE_OPTION = "-verbose";
+    private static final String TWO_PASS_OPTION = "-twopass";
+    private static final String INLINE_OPTION = "-inline";
+    private static final String GREP_OPTION = "-grep";
+    private static final String MAXIMUM_LINE_LENGTH_OPTION = "-maxlinelength";
+    private static final String MATCHING_BUDGET_OPTION = "-matchbudget";
     // The settings.
-    private final String regularExpression;
-    private final boolean verbose;
+    private final FramePattern pattern;
     private final Reader mapping;
+    private LineFilter lineFilter;
+    // The loaded mapping, shared by all invocations of retrace.
+    private volatile FrameRemapper mapper;
 
     /**
-     * Creates a new ReTrace instance.
+     * Creates a new ReTrace instance. The mapping is read once, when it is
+     * first needed, and then reused for all subsequent stack traces.
      *
      * @param regularExpression the regular expression for parsing the lines in the stack trace.
      * @param verbose           specifies whether the de-obfuscated stack trace should be verbose.
      * @param mapping           the mapping file that was written out by ProGuard.
      */
     public ReTrace(String regularExpression, boolean verbose, Reader mapping) {
-        this.regularExpression = regularExpression;
-        this.verbose = verbose;
+        this(new String[] { regularExpression }, verbose, mapping);
+    }
+
+    /**
+     * Creates a new ReTrace instance that recognizes stack traces in any of
+     * the given formats, in a single pass. The mapping is read once, when it
+     * is first needed, and then reused for all subsequent stack traces.
+     *
+     * @param regularExpressions the regular expressions for parsing the lines in the stack trace, in order of priority.
+     * @param verbose            specifies whether the de-obfuscated stack trace should be verbose.
+     * @param mapping            the mapping file that was written out by ProGuard.
+     */
+    public ReTrace(String[] regularExpressions, boolean verbose, Reader mapping) {
+        this(new FramePattern(regularExpressions, verbose), mapping);
+    }
+
+    /**
+     * Creates a new ReTrace instance that parses the lines of stack traces
+     * with the given pattern. The mapping is read once, when it is first
+     * needed, and then reused for all subsequent stack traces.
+     *
+     * @param pattern the pattern for parsing and formatting the lines in the stack trace.
+     * @param mapping the mapping file that was written out by ProGuard.
+     */
+    public ReTrace(FramePattern pattern, Reader mapping) {
+        this.pattern = pattern;
         this.mapping = mapping;
     }
 
+    /**
+     * Creates a new ReTrace instance that uses an already loaded mapping.
+     * The same mapping can be shared by any number of ReTrace instances and
+     * threads.
+     *
+     * @param regularExpression the regular expression for parsing the lines in the stack trace.
+     * @param verbose           specifies whether the de-obfuscated stack trace should be verbose.
+     * @param mapper            the mapping, as loaded by {@link #loadMapping(Reader)}.
+     */
+    public ReTrace(String regularExpression, boolean verbose, FrameRemapper mapper) {
+        this(new String[] { regularExpression }, verbose, mapper);
+    }
+
+    /**
+     * Creates a new ReTrace instance that recognizes stack traces in any of
+     * the given formats, in a single pass, and that uses an already loaded
+     * mapping.
+     *
+     * @param regularExpressions the regular expressions for parsing the lines in the stack trace, in order of priority.
+     * @param verbose            specifies whether the de-obfuscated stack trace should be verbose.
+     * @param mapper             the mapping, as loaded by {@link #loadMapping(Reader)}.
+     */
+    public ReTrace(String[] regularExpressions, boolean verbose, FrameRemapper mapper) {
+        this(new FramePattern(regularExpressions, verbose), mapper);
+    }
+
+    /**
+     * Creates a new ReTrace instance that parses the lines of stack traces
+     * with the given pattern, and that uses an already loaded mapping.
+     *
+     * @param pattern the pattern for parsing and formatting the lines in the stack trace.
+     * @param mapper  the mapping, as loaded by {@link #loadMapping(Reader)}.
+     */
+    public ReTrace(FramePattern pattern, FrameRemapper mapper) {
+        this.pattern = pattern;
+        this.mapping = null;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Sets the filter that lines have to pass before they are matched against
+     * the regular expressions. Lines that it rejects are copied unchanged.
+     * There is no filter by default, but the regular expressions already
+     * skip the lines that don't contain the literal strings that they
+     * require, if any.
+     *
+     * @param lineFilter the filter, or null to match all lines.
+     */
+    public void setLineFilter(LineFilter lineFilter) {
+        this.lineFilter = lineFilter;
+    }
+
+    /**
+     * Reads the given mapping file into a remapper that can be shared by any
+     * number of ReTrace instances and threads.
+     *
+     * @param mapping the mapping file that was written out by ProGuard.
+     * @return the loaded mapping, frozen with {@link FrameRemapper#freeze()}.
+     */
+    public static FrameRemapper loadMapping(Reader mapping) throws IOException {
+        FrameRemapper mapper = new FrameRemapper();
+
+        MappingReader mappingReader = new MappingReader(mapping);
+        mappingReader.pump(mapper);
+
+        return mapper.freeze();
+    }
+
+    /**
+     * Reads the given mapping file into a remapper, but only reads the class
+     * members of the given classes. The remapper can still remap the names of
+     * all other classes.
+     *
+     * @param mapping              the mapping file that was written out by ProGuard.
+     * @param obfuscatedClassNames the obfuscated names of the classes whose
+     *                             class members are needed.
+     * @return the loaded mapping, frozen with {@link FrameRemapper#freeze()}.
+     */
+    public static FrameRemapper loadMapping(Reader mapping, Set<String> obfuscatedClassNames) throws IOException {
+        FrameRemapper mapper = new FrameRemapper();
+
+        MappingReader mappingReader = new MappingReader(mapping);
+        mappingReader.pump(new ClassMappingFilter(obfuscatedClassNames, mapper));
+
+        return mapper.freeze();
+    }
+
     /**
      * The main program for ReTrace.
      */
@@ -74,16 +202,32 @@ public class ReTrace {
             System.exit(-1);
         }
 
-        String regularExpresssion = STACK_TRACE_EXPRESSION;
+        List<String> regularExpressions = new ArrayList<String>();
         boolean verbose = false;
+        boolean twoPass = false;
+        boolean inline = false;
+        String grepSymbol = null;
+        int maximumLineLength = 0;
+        int matchingBudget = 0;
 
         int argumentIndex = 0;
         while (argumentIndex < args.length) {
             String arg = args[argumentIndex];
             if (arg.equals(REGEX_OPTION)) {
-                regularExpresssion = args[++argumentIndex];
+                // Every expression adds a format.
+                regularExpressions.add(args[++argumentIndex]);
             } else if (arg.equals(VERBOSE_OPTION)) {
                 verbose = true;
+            } else if (arg.equals(TWO_PASS_OPTION)) {
+                twoPass = true;
+            } else if (arg.equals(INLINE_OPTION)) {
+                inline = true;
+            } else if (arg.equals(GREP_OPTION)) {
+                grepSymbol = args[++argumentIndex];
+            } else if (arg.equals(MAXIMUM_LINE_LENGTH_OPTION)) {
+                maximumLineLength = Integer.parseInt(args[++argumentIndex]);
+            } else if (arg.equals(MATCHING_BUDGET_OPTION)) {
+                matchingBudget = Integer.parseInt(args[++argumentIndex]);
             } else {
                 break;
             }
@@ -96,6 +240,15 @@ public class ReTrace {
             System.exit(-1);
         }
 
+        if (regularExpressions.isEmpty()) {
+            regularExpressions.add(inline ? INLINE_FRAME_EXPRESSION : STACK_TRACE_EXPRESSION);
+        }
+
+        FramePattern pattern = new FramePattern(regularExpressions.toArray(new String[regularExpressions.size()]),
+                verbose,
+                maximumLineLength,
+                matchingBudget);
+
         // Convert the arguments into File instances.
         File mappingFile = new File(args[argumentIndex++]);
         File stackTraceFile = argumentIndex < args.length ? new File(args[argumentIndex]) : null;
@@ -111,8 +264,29 @@ public class ReTrace {
             PrintWriter writer = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
 
             try {
-                // Execute ReTrace with the collected settings.
-                new ReTrace(regularExpresssion, verbose, new FileReader(mappingFile)).retrace(reader, writer);
+                if (grepSymbol != null) {
+                    // Search the obfuscated input for the original symbol,
+                    // without retracing it.
+                    int count = grep(mappingFile, grepSymbol, reader, writer);
+                    System.exit(count > 0 ? 0 : 1);
+                }
+
+                // Execute ReTrace with the collected settings, reading a
+                // compiled mapping index directly if we get one. We don't
+                // have its mapping file in that case, so we can't check
+                // whether the index is still up to date; the user has to
+                // recompile it whenever the mapping file changes.
+                ReTrace reTrace = MappingIndex.isMappingIndex(mappingFile) ?
+                        new ReTrace(pattern, new FrameRemapper(MappingIndex.open(mappingFile))) :
+                        new ReTrace(pattern, new FileReader(mappingFile));
+
+                if (inline) {
+                    reTrace.retraceInline(reader, writer);
+                } else if (twoPass) {
+                    reTrace.retraceInTwoPasses(reader, writer);
+                } else {
+                    reTrace.retrace(reader, writer);
+                }
             } finally {
                 // Close the input stack trace if it was a file.
                 if (stackTraceFile != null) {
@@ -134,6 +308,32 @@ public class ReTrace {
         System.exit(0);
     }
 
+    /**
+     * Copies the lines of the given obfuscated input that refer to the given
+     * original symbol to the given writer, without retracing them.
+     *
+     * @param mappingFile    the mapping file that was written out by ProGuard.
+     * @param originalSymbol the original class name or class member name.
+     * @param reader         a reader for the obfuscated input.
+     * @param writer         a writer for the matching lines.
+     * @return the number of matching lines.
+     */
+    public static int grep(File mappingFile, String originalSymbol, BufferedReader reader, PrintWriter writer) throws IOException {
+        if (MappingIndex.isMappingIndex(mappingFile)) {
+            throw new IOException("Searching requires a mapping file, not a mapping index [" + mappingFile + "]");
+        }
+
+        ReverseMappingIndex reverseMappingIndex = new ReverseMappingIndex();
+        new MappingReader(mappingFile).pump(reverseMappingIndex);
+
+        SymbolGrep grep = new SymbolGrep(reverseMappingIndex, originalSymbol);
+        if (!grep.isMapped()) {
+            throw new IOException("Unknown original symbol [" + originalSymbol + "]");
+        }
+
+        return grep.grep(reader, writer);
+    }
+
     /**
      * De-obfuscates a given stack trace.
      *
@@ -141,15 +341,8 @@ public class ReTrace {
      * @param stackTraceWriter a writer for the de-obfuscated stack trace.
      */
     public void retrace(LineNumberReader stackTraceReader, PrintWriter stackTraceWriter) throws IOException {
-        // Create a pattern for stack frames.
-        FramePattern pattern = new FramePattern(regularExpression, verbose);
-
-        // Create a remapper.
-        FrameRemapper mapper = new FrameRemapper();
-
-        // Read the mapping file.
-        MappingReader mappingReader = new MappingReader(mapping);
-        mappingReader.pump(mapper);
+        // Get the remapper, reading the mapping file if necessary.
+        FrameRemapper mapper = getMapper();
 
         // Read and process the lines of the stack trace.
         while (true) {
@@ -159,41 +352,170 @@ public class ReTrace {
                 break;
             }
 
-            // Try to match it against the regular expression.
+            retrace(obfuscatedLine, mapper, stackTraceWriter);
+        }
+
+        stackTraceWriter.flush();
+    }
+
+    /**
+     * De-obfuscates a given stack trace in two passes. The first pass
+     * collects the names of the obfuscated classes in the stack trace, so
+     * that the mapping file only needs to be parsed for the class members of
+     * these classes. This is useful for retracing a single stack trace with a
+     * large mapping file. The partially read mapping isn't kept, so the
+     * mapping file can't be read again afterwards, unless the mapping had
+     * already been loaded, in which case it is simply reused.
+     *
+     * @param stackTraceReader a reader for the obfuscated stack trace.
+     * @param stackTraceWriter a writer for the de-obfuscated stack trace.
+     */
+    public void retraceInTwoPasses(LineNumberReader stackTraceReader, PrintWriter stackTraceWriter) throws IOException {
+        // Read the lines of the stack trace, collecting the class names
+        // of the frames.
+        List<String> obfuscatedLines = new ArrayList<String>();
+        Set<String> obfuscatedClassNames = new HashSet<String>();
+
+        while (true) {
+            String obfuscatedLine = stackTraceReader.readLine();
+            if (obfuscatedLine == null) {
+                break;
+            }
+
+            obfuscatedLines.add(obfuscatedLine);
+
+            if (lineFilter != null && !lineFilter.accepts(obfuscatedLine)) {
+                continue;
+            }
+
             FrameInfo obfuscatedFrame = pattern.parse(obfuscatedLine);
-            if (obfuscatedFrame != null) {
-                // Transform the obfuscated frame back to one or more
-                // original frames.
-                Iterator<FrameInfo> retracedFrames = mapper.transform(obfuscatedFrame).iterator();
+            if (obfuscatedFrame != null && obfuscatedFrame.getClassName() != null) {
+                obfuscatedClassNames.add(obfuscatedFrame.getClassName());
+            }
+        }
 
-                String previousLine = null;
+        // Read the mapping file, only for the classes that we need, if it
+        // hasn't been loaded yet.
+        FrameRemapper mapper = this.mapper;
+        if (mapper == null) {
+            mapper = loadMapping(mapping, obfuscatedClassNames);
+        }
 
-                while (retracedFrames.hasNext()) {
-                    // Retrieve the next retraced frame.
-                    FrameInfo retracedFrame = retracedFrames.next();
+        // Process the lines of the stack trace.
+        for (String obfuscatedLine : obfuscatedLines) {
+            retrace(obfuscatedLine, mapper, stackTraceWriter);
+        }
 
-                    // Format the retraced line.
-                    String retracedLine = pattern.format(obfuscatedLine, retracedFrame);
+        stackTraceWriter.flush();
+    }
 
-                    // Clear the common first part of ambiguous alternative
-                    // retraced lines, to present a cleaner list of
-                    // alternatives.
-                    String trimmedLine = previousLine != null && obfuscatedFrame.getLineNumber() == 0 ? trim(retracedLine, previousLine) : retracedLine;
+    /**
+     * De-obfuscates all stack frames that occur anywhere in the given text,
+     * for instance dozens of frames in a single-line JSON crash report, and
+     * copies the rest of the text unchanged. The regular expressions are
+     * searched for instead of matched against entire lines, so they should
+     * only match the frames themselves, like {@link #INLINE_FRAME_EXPRESSION}.
+     * The text is read through a bounded window, so lines of any length can
+     * be processed.
+     *
+     * @param stackTraceReader a reader for the obfuscated text.
+     * @param stackTraceWriter a writer for the de-obfuscated text.
+     */
+    public void retraceInline(Reader stackTraceReader, Writer stackTraceWriter) throws IOException {
+        new FrameFinder(pattern, getMapper()).retrace(stackTraceReader, stackTraceWriter);
+    }
+
+    /**
+     * De-obfuscates a given line of a stack trace.
+     */
+    private void retrace(String obfuscatedLine, FrameRemapper mapper, PrintWriter stackTraceWriter) {
+        // Try to match it against the regular expression, once for all
+        // retraced alternatives, unless the filter rules it out.
+        FrameMatch obfuscatedMatch = lineFilter == null || lineFilter.accepts(obfuscatedLine) ?
+                pattern.match(obfuscatedLine) :
+                null;
+
+        // Lines with just a class name that isn't obfuscated stay the same.
+        if (obfuscatedMatch != null && pattern.hasClassNameOnly(obfuscatedMatch) &&
+                mapper.getMappingStore().getOriginalClassName(obfuscatedMatch.getFrameInfo().getClassName()) == null) {
+            obfuscatedMatch = null;
+        }
 
-                    // Print out the retraced line.
-                    if (trimmedLine != null) {
-                        stackTraceWriter.println(trimmedLine);
-                    }
+        if (obfuscatedMatch != null) {
+            FrameInfo obfuscatedFrame = obfuscatedMatch.getFrameInfo();
 
-                    previousLine = retracedLine;
+            // Transform the obfuscated frame back to one or more
+            // original frames.
+            Iterator<FrameInfo> retracedFrames = mapper.transform(obfuscatedFrame).iterator();
+
+            String previousLine = null;
+
+            while (retracedFrames.hasNext()) {
+                // Retrieve the next retraced frame.
+                FrameInfo retracedFrame = retracedFrames.next();
+
+                // Format the retraced line.
+                String retracedLine = pattern.format(obfuscatedMatch, retracedFrame);
+
+                // Clear the common first part of ambiguous alternative
+                // retraced lines, to present a cleaner list of
+                // alternatives.
+                String trimmedLine = previousLine != null && obfuscatedFrame.getLineNumber() == 0 ? trim(retracedLine, previousLine) : retracedLine;
+
+                // Print out the retraced line.
+                if (trimmedLine != null) {
+                    stackTraceWriter.println(trimmedLine);
+                }
+
+                previousLine = retracedLine;
+            }
+        } else {
+            // Print out the original line.
+            stackTraceWriter.println(obfuscatedLine);
+        }
+    }
+
+    /**
+     * Reads the given mapping file on the given fork-join pool, into a
+     * remapper that can be shared by any number of ReTrace instances and
+     * threads.
+     *
+     * @param mappingFile the mapping file that was written out by ProGuard.
+     * @param pool        the pool on which chunks of the file are parsed.
+     * @return the loaded mapping, frozen with {@link FrameRemapper#freeze()}.
+     */
+    public static FrameRemapper loadMapping(File mappingFile, ForkJoinPool pool) throws IOException {
+        HeapMappingStore store = new ParallelMappingReader(mappingFile).pump(pool, new ParallelMappingReader.MappingProcessorFactory<HeapMappingStore>() {
+            public HeapMappingStore createMappingProcessor() {
+                return new HeapMappingStore();
+            }
+
+            public HeapMappingStore mergeMappingProcessors(HeapMappingStore store1, HeapMappingStore store2) {
+                store1.merge(store2);
+                return store1;
+            }
+        });
+
+        return new FrameRemapper(store).freeze();
+    }
+
+    /**
+     * Returns the loaded mapping, reading the mapping file the first time
+     * it is needed.
+     */
+    private FrameRemapper getMapper() throws IOException {
+        FrameRemapper mapper = this.mapper;
+        if (mapper == null) {
+            synchronized (this) {
+                mapper = this.mapper;
+                if (mapper == null) {
+                    mapper = loadMapping(mapping);
+                    this.mapper = mapper;
                 }
-            } else {
-                // Print out the original line.
-                stackTraceWriter.println(obfuscatedLine);
             }
         }
 
-        stackTraceWriter.flush();
+        return mapper;
     }
 
     /**
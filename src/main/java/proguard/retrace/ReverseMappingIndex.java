@@ -0,0 +1,236 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import proguard.obfuscate.MappingProcessor;
+
+import java.util.*;
+
+/**
+ * This MappingProcessor collects the reverse mapping information: from
+ * original class names and class member names to their obfuscated names
+ * and obfuscated line number ranges. It allows searching obfuscated output
+ * for original symbols without retracing it.
+ *
+ * @see SymbolGrep
+ *
+ * @author F43nd1r
+ */
+public class ReverseMappingIndex implements MappingProcessor
+{
+    // Original class name -> obfuscated class name.
+    private final Map<String,String>                             classMap  = new HashMap<String,String>();
+
+    // Original class name -> original member name -> obfuscated members.
+    private final Map<String,Map<String,List<ObfuscatedMember>>> memberMap = new HashMap<String,Map<String,List<ObfuscatedMember>>>();
+
+    // The obfuscated name of the current class of the mapping file.
+    private String obfuscatedClassName;
+
+
+    /**
+     * Returns the obfuscated name of the given original class, or null if
+     * the class isn't mapped.
+     */
+    public String getObfuscatedClassName(String originalClassName)
+    {
+        return classMap.get(originalClassName);
+    }
+
+
+    /**
+     * Returns the obfuscated versions of the fields and methods with the
+     * given original class name and member name, in the order of the
+     * mapping file. This includes members that have been inlined into other
+     * classes. The list is empty if there are no such members.
+     */
+    public List<ObfuscatedMember> getObfuscatedMembers(String originalClassName,
+                                                       String originalMemberName)
+    {
+        Map<String,List<ObfuscatedMember>> members = memberMap.get(originalClassName);
+        if (members != null)
+        {
+            List<ObfuscatedMember> obfuscatedMembers = members.get(originalMemberName);
+            if (obfuscatedMembers != null)
+            {
+                return Collections.unmodifiableList(obfuscatedMembers);
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+
+    // Implementations for MappingProcessor.
+
+    public boolean processClassMapping(String className,
+                                       String newClassName)
+    {
+        classMap.put(className, newClassName);
+
+        obfuscatedClassName = newClassName;
+
+        return true;
+    }
+
+
+    public void processFieldMapping(String className,
+                                    String fieldType,
+                                    String fieldName,
+                                    String newClassName,
+                                    String newFieldName)
+    {
+        addMember(className,
+                  fieldName,
+                  new ObfuscatedMember(obfuscatedClassName,
+                                       newFieldName,
+                                       false,
+                                       0,
+                                       0));
+    }
+
+
+    public void processMethodMapping(String className,
+                                     int    firstLineNumber,
+                                     int    lastLineNumber,
+                                     String methodReturnType,
+                                     String methodName,
+                                     String methodArguments,
+                                     String newClassName,
+                                     int    newFirstLineNumber,
+                                     int    newLastLineNumber,
+                                     String newMethodName)
+    {
+        addMember(className,
+                  methodName,
+                  new ObfuscatedMember(obfuscatedClassName,
+                                       newMethodName,
+                                       true,
+                                       newFirstLineNumber,
+                                       newLastLineNumber));
+    }
+
+
+    // Small utility methods.
+
+    private void addMember(String           originalClassName,
+                           String           originalMemberName,
+                           ObfuscatedMember obfuscatedMember)
+    {
+        Map<String,List<ObfuscatedMember>> members = memberMap.get(originalClassName);
+        if (members == null)
+        {
+            members = new HashMap<String,List<ObfuscatedMember>>();
+            memberMap.put(originalClassName, members);
+        }
+
+        List<ObfuscatedMember> obfuscatedMembers = members.get(originalMemberName);
+        if (obfuscatedMembers == null)
+        {
+            obfuscatedMembers = new ArrayList<ObfuscatedMember>(1);
+            members.put(originalMemberName, obfuscatedMembers);
+        }
+
+        obfuscatedMembers.add(obfuscatedMember);
+    }
+
+
+    /**
+     * The obfuscated version of a field or method.
+     */
+    public static class ObfuscatedMember
+    {
+        private final String  className;
+        private final String  name;
+        private final boolean method;
+        private final int     firstLineNumber;
+        private final int     lastLineNumber;
+
+
+        private ObfuscatedMember(String  className,
+                                 String  name,
+                                 boolean method,
+                                 int     firstLineNumber,
+                                 int     lastLineNumber)
+        {
+            this.className       = className;
+            this.name            = name;
+            this.method          = method;
+            this.firstLineNumber = firstLineNumber;
+            this.lastLineNumber  = lastLineNumber;
+        }
+
+
+        /**
+         * Returns the obfuscated name of the class that contains the member.
+         */
+        public String getClassName()
+        {
+            return className;
+        }
+
+
+        /**
+         * Returns the obfuscated member name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+
+        /**
+         * Returns whether the member is a method.
+         */
+        public boolean isMethod()
+        {
+            return method;
+        }
+
+
+        /**
+         * Returns the first obfuscated line number of the method, or 0 if it
+         * is not known.
+         */
+        public int getFirstLineNumber()
+        {
+            return firstLineNumber;
+        }
+
+
+        /**
+         * Returns the last obfuscated line number of the method, or 0 if it
+         * is not known.
+         */
+        public int getLastLineNumber()
+        {
+            return lastLineNumber;
+        }
+
+
+        // Implementations for Object.
+
+        public String toString()
+        {
+            return className + '.' + name + (lastLineNumber != 0 ? ":" + firstLineNumber + ":" + lastLineNumber : "");
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.*;
+
+/**
+ * This class retraces structured stack frames, like the StackTraceElement
+ * instances of a Throwable, or frames that have been received as separate
+ * fields, with a FrameRemapper. Unlike ReTrace, it doesn't format the frames
+ * as text, so it doesn't have to parse them again with a FramePattern.
+ * <p>
+ * An obfuscated frame can correspond to several original frames: the
+ * frames of inlined methods, or alternatives if the obfuscated frame is
+ * ambiguous. Like ReTrace, the methods that return flat stack traces
+ * include all of them, in order.
+ *
+ * @author F43nd1r
+ */
+public class StackTraceRemapper
+{
+    private final FrameRemapper mapper;
+
+
+    /**
+     * Creates a new StackTraceRemapper.
+     * @param mapper the mapping, as loaded by
+     *               {@link ReTrace#loadMapping(java.io.Reader)}.
+     */
+    public StackTraceRemapper(FrameRemapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+
+    /**
+     * Returns the original frames of the given obfuscated frame.
+     * @param className  the obfuscated class name.
+     * @param methodName the obfuscated method name, or null.
+     * @param sourceFile the source file name, or null.
+     * @param lineNumber the obfuscated line number, or 0 if it is unknown.
+     * @return the original frames, with at least one frame.
+     */
+    public List<FrameInfo> retrace(String className,
+                                   String methodName,
+                                   String sourceFile,
+                                   int    lineNumber)
+    {
+        return retrace(new FrameInfo(className,
+                                     sourceFile,
+                                     lineNumber,
+                                     null,
+                                     null,
+                                     methodName,
+                                     null));
+    }
+
+
+    /**
+     * Returns the original frames of the given obfuscated frame. Frames of
+     * classes that aren't in the mapping come back unchanged.
+     * @return the original frames, with at least one frame.
+     */
+    public List<FrameInfo> retrace(FrameInfo obfuscatedFrame)
+    {
+        // The remapper would still derive a source file name from the class
+        // name, so we leave unmapped frames alone here.
+        if (mapper.getMappingStore().getOriginalClassName(obfuscatedFrame.getClassName()) == null)
+        {
+            return Collections.singletonList(obfuscatedFrame);
+        }
+
+        List<FrameInfo> originalFrames = mapper.transform(obfuscatedFrame);
+
+        return originalFrames == null || originalFrames.isEmpty() ?
+            Collections.singletonList(obfuscatedFrame) :
+            originalFrames;
+    }
+
+
+    /**
+     * Returns the original frames of the given obfuscated frames, as one
+     * list of original frames per obfuscated frame.
+     */
+    public List<List<FrameInfo>> retrace(List<FrameInfo> obfuscatedFrames)
+    {
+        List<List<FrameInfo>> originalFrames = new ArrayList<List<FrameInfo>>(obfuscatedFrames.size());
+
+        for (FrameInfo obfuscatedFrame : obfuscatedFrames)
+        {
+            originalFrames.add(retrace(obfuscatedFrame));
+        }
+
+        return originalFrames;
+    }
+
+
+    /**
+     * Returns the original stack trace of the given obfuscated stack trace.
+     * Native methods keep their negative line number, and elements of
+     * classes that aren't in the mapping come back unchanged.
+     */
+    public StackTraceElement[] retrace(StackTraceElement[] obfuscatedElements)
+    {
+        List<StackTraceElement> originalElements = new ArrayList<StackTraceElement>(obfuscatedElements.length);
+
+        for (StackTraceElement obfuscatedElement : obfuscatedElements)
+        {
+            if (mapper.getMappingStore().getOriginalClassName(obfuscatedElement.getClassName()) == null)
+            {
+                originalElements.add(obfuscatedElement);
+                continue;
+            }
+
+            int lineNumber = obfuscatedElement.getLineNumber();
+
+            List<FrameInfo> originalFrames =
+                retrace(obfuscatedElement.getClassName(),
+                        obfuscatedElement.getMethodName(),
+                        obfuscatedElement.getFileName(),
+                        Math.max(lineNumber, 0));
+
+            for (FrameInfo originalFrame : originalFrames)
+            {
+                originalElements.add(new StackTraceElement(originalFrame.getClassName(),
+                                                           originalFrame.getMethodName(),
+                                                           originalFrame.getSourceFile(),
+                                                           lineNumber < 0 ?
+                                                               lineNumber :
+                                                               originalFrame.getLineNumber()));
+            }
+        }
+
+        return originalElements.toArray(new StackTraceElement[originalElements.size()]);
+    }
+
+
+    /**
+     * Returns the original stack traces of the given throwable and of its
+     * related throwables, leaving the throwables themselves untouched. The
+     * list starts with the stack trace of the given throwable, followed by
+     * those of its cause and of its suppressed throwables, each in turn
+     * followed by those of their own related throwables, visiting every
+     * throwable once. The class names and messages of the throwables can't
+     * be retraced here; see {@link #originalClassName(String)}.
+     * @param throwable the obfuscated throwable.
+     * @return the original stack traces, with at least one stack trace.
+     * @see #retraceInPlace(Throwable)
+     */
+    public List<StackTraceElement[]> retrace(Throwable throwable)
+    {
+        List<Throwable> throwables = relatedThrowables(throwable);
+
+        List<StackTraceElement[]> originalStackTraces = new ArrayList<StackTraceElement[]>(throwables.size());
+
+        for (Throwable relatedThrowable : throwables)
+        {
+            originalStackTraces.add(retrace(relatedThrowable.getStackTrace()));
+        }
+
+        return originalStackTraces;
+    }
+
+
+    /**
+     * Replaces the stack traces of the given throwable and of its related
+     * throwables by their original stack traces, in the order of
+     * {@link #retrace(Throwable)}. This has no effect on throwables whose
+     * stack traces aren't writable.
+     * @param throwable the obfuscated throwable.
+     */
+    public void retraceInPlace(Throwable throwable)
+    {
+        for (Throwable relatedThrowable : relatedThrowables(throwable))
+        {
+            relatedThrowable.setStackTrace(retrace(relatedThrowable.getStackTrace()));
+        }
+    }
+
+
+    /**
+     * Returns the original name of the given obfuscated class name, or the
+     * given name if it isn't obfuscated.
+     */
+    public String originalClassName(String obfuscatedClassName)
+    {
+        String originalClassName = mapper.getMappingStore().getOriginalClassName(obfuscatedClassName);
+
+        return originalClassName != null ?
+            originalClassName :
+            obfuscatedClassName;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Returns the given throwable and its related throwables, in the order
+     * of {@link #retrace(Throwable)}.
+     */
+    private static List<Throwable> relatedThrowables(Throwable throwable)
+    {
+        Set<Throwable> visitedThrowables =
+            Collections.newSetFromMap(new IdentityHashMap<Throwable,Boolean>());
+
+        List<Throwable> throwables = new ArrayList<Throwable>();
+        addRelatedThrowables(throwable, visitedThrowables, throwables);
+
+        return throwables;
+    }
+
+
+    /**
+     * Adds the given throwable and its related throwables to the given list,
+     * skipping the throwables that have already been visited.
+     */
+    private static void addRelatedThrowables(Throwable       throwable,
+                                             Set<Throwable>  visitedThrowables,
+                                             List<Throwable> throwables)
+    {
+        if (throwable == null ||
+            !visitedThrowables.add(throwable))
+        {
+            return;
+        }
+
+        throwables.add(throwable);
+
+        addRelatedThrowables(throwable.getCause(), visitedThrowables, throwables);
+
+        for (Throwable suppressedThrowable : throwable.getSuppressed())
+        {
+            addRelatedThrowables(suppressedThrowable, visitedThrowables, throwables);
+        }
+    }
+}
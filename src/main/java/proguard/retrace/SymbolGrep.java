@@ -0,0 +1,269 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * This class searches obfuscated output, such as logs, for an original
+ * symbol. It translates the symbol into its obfuscated names once, with a
+ * ReverseMappingIndex, and then scans the raw lines, without retracing
+ * them. The symbol can be an original class name, like
+ * <code>com.acme.Checkout</code>, or an original class member name, like
+ * <code>com.acme.Checkout.submit</code>.
+ * <p>
+ * A method only matches if the line number that follows it in a stack frame,
+ * if any, lies in the obfuscated line number range of the method. This
+ * distinguishes methods that share the same obfuscated name, including
+ * inlined methods.
+ *
+ * @author F43nd1r
+ */
+public class SymbolGrep
+{
+    // The obfuscated qualified names, with an optional stack frame line
+    // number after a method name.
+    private static final String NAME_BOUNDARY_START = "(?<![\\w$.])(";
+    private static final String NAME_BOUNDARY_END   = ")(?![\\w$])(?:\\s*\\([^():]*:(-?\\d+)\\))?";
+
+    // Obfuscated qualified name -> line number ranges, or null if any line
+    // number matches.
+    private final Map<String,List<int[]>> lineNumberRanges = new HashMap<String,List<int[]>>();
+
+    private final Pattern pattern;
+
+
+    /**
+     * Creates a new SymbolGrep for the given original symbol.
+     * @param reverseMappingIndex the reverse mapping information.
+     * @param originalSymbol      the original class name or class member
+     *                            name, optionally followed by an argument
+     *                            list, which is ignored.
+     */
+    public SymbolGrep(ReverseMappingIndex reverseMappingIndex,
+                      String              originalSymbol)
+    {
+        // Strip any arguments.
+        int argumentsIndex = originalSymbol.indexOf('(');
+        if (argumentsIndex >= 0)
+        {
+            originalSymbol = originalSymbol.substring(0, argumentsIndex);
+        }
+
+        originalSymbol = originalSymbol.trim();
+
+        // Is it a class name?
+        String obfuscatedClassName = reverseMappingIndex.getObfuscatedClassName(originalSymbol);
+        if (obfuscatedClassName != null)
+        {
+            lineNumberRanges.put(obfuscatedClassName, null);
+        }
+
+        // Is it a class member name?
+        int memberIndex = originalSymbol.lastIndexOf('.');
+        if (memberIndex > 0)
+        {
+            List<ReverseMappingIndex.ObfuscatedMember> obfuscatedMembers =
+                reverseMappingIndex.getObfuscatedMembers(originalSymbol.substring(0, memberIndex),
+                                                         originalSymbol.substring(memberIndex + 1));
+
+            for (ReverseMappingIndex.ObfuscatedMember obfuscatedMember : obfuscatedMembers)
+            {
+                addMember(obfuscatedMember);
+            }
+        }
+
+        pattern = lineNumberRanges.isEmpty() ? null : createPattern();
+    }
+
+
+    /**
+     * Returns whether the symbol is mapped at all. Otherwise, it can't
+     * match any lines.
+     */
+    public boolean isMapped()
+    {
+        return pattern != null;
+    }
+
+
+    /**
+     * Returns the obfuscated qualified names that the symbol translates to.
+     */
+    public Set<String> getObfuscatedNames()
+    {
+        return Collections.unmodifiableSet(lineNumberRanges.keySet());
+    }
+
+
+    /**
+     * Returns whether the given obfuscated line refers to the symbol.
+     */
+    public boolean matches(String line)
+    {
+        if (pattern == null)
+        {
+            return false;
+        }
+
+        Matcher matcher = pattern.matcher(line);
+        while (matcher.find())
+        {
+            if (matchesLineNumber(matcher.group(1), matcher.group(2)))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Copies all obfuscated lines that refer to the symbol from the given
+     * reader to the given writer.
+     * @return the number of matching lines.
+     */
+    public int grep(BufferedReader reader, PrintWriter writer) throws IOException
+    {
+        int count = 0;
+
+        while (true)
+        {
+            String line = reader.readLine();
+            if (line == null)
+            {
+                break;
+            }
+
+            if (matches(line))
+            {
+                writer.println(line);
+                count++;
+            }
+        }
+
+        writer.flush();
+
+        return count;
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * Adds the obfuscated qualified name of the given member, with its line
+     * number range, if any.
+     */
+    private void addMember(ReverseMappingIndex.ObfuscatedMember obfuscatedMember)
+    {
+        String name = obfuscatedMember.getClassName() + '.' + obfuscatedMember.getName();
+
+        boolean     present = lineNumberRanges.containsKey(name);
+        List<int[]> ranges  = lineNumberRanges.get(name);
+
+        if (!obfuscatedMember.isMethod() ||
+            obfuscatedMember.getLastLineNumber() == 0)
+        {
+            // Any line number matches.
+            lineNumberRanges.put(name, null);
+        }
+        else if (!present || ranges != null)
+        {
+            if (ranges == null)
+            {
+                ranges = new ArrayList<int[]>();
+                lineNumberRanges.put(name, ranges);
+            }
+
+            ranges.add(new int[] { obfuscatedMember.getFirstLineNumber(),
+                                   obfuscatedMember.getLastLineNumber() });
+        }
+    }
+
+
+    /**
+     * Creates a pattern that finds all obfuscated names, longest first, so
+     * class members take precedence over their classes.
+     */
+    private Pattern createPattern()
+    {
+        List<String> names = new ArrayList<String>(lineNumberRanges.keySet());
+        Collections.sort(names, new Comparator<String>()
+        {
+            public int compare(String name1, String name2)
+            {
+                return name2.length() - name1.length();
+            }
+        });
+
+        StringBuilder regularExpression = new StringBuilder(NAME_BOUNDARY_START);
+        for (int index = 0; index < names.size(); index++)
+        {
+            if (index > 0)
+            {
+                regularExpression.append('|');
+            }
+
+            regularExpression.append(Pattern.quote(names.get(index)));
+        }
+
+        regularExpression.append(NAME_BOUNDARY_END);
+
+        return Pattern.compile(regularExpression.toString());
+    }
+
+
+    /**
+     * Returns whether the given line number, if any, lies in one of the
+     * line number ranges of the given obfuscated name.
+     */
+    private boolean matchesLineNumber(String name, String lineNumber)
+    {
+        List<int[]> ranges = lineNumberRanges.get(name);
+        if (ranges == null || lineNumber == null)
+        {
+            return true;
+        }
+
+        int obfuscatedLineNumber;
+        try
+        {
+            obfuscatedLineNumber = Integer.parseInt(lineNumber);
+        }
+        catch (NumberFormatException ex)
+        {
+            return true;
+        }
+
+        for (int[] range : ranges)
+        {
+            if (LineNumbers.matches(obfuscatedLineNumber, range[0], range[1]))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import java.util.Arrays;
+
+/**
+ * This class stores each distinct string once and identifies it by an int
+ * id. Ids are assigned consecutively, starting at 0. The hash table is
+ * open-addressed and only contains ids, so there are no boxed keys or map
+ * entries to retain.
+ *
+ * @author F43nd1r
+ */
+class SymbolTable
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    // The approximate size of a String object and its array, without the
+    // characters.
+    private static final int STRING_SIZE = 40;
+
+    private String[] symbols = new String[INITIAL_CAPACITY];
+    private int      symbolCount;
+    private long     characterCount;
+
+    // Hash slot -> symbol id + 1, or 0 for an empty slot.
+    private int[]    slots   = new int[INITIAL_CAPACITY * 2];
+
+
+    /**
+     * Returns the id of the given string, adding the string if it isn't
+     * present yet.
+     */
+    public int add(String symbol)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(symbol) & mask;
+
+        while (true)
+        {
+            int id = slots[slot] - 1;
+            if (id < 0)
+            {
+                break;
+            }
+
+            if (symbols[id].equals(symbol))
+            {
+                return id;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        // Add the new symbol.
+        if (symbolCount == symbols.length)
+        {
+            symbols = Arrays.copyOf(symbols, symbolCount * 2);
+        }
+
+        int id = symbolCount++;
+        symbols[id] = symbol;
+        characterCount += symbol.length();
+        slots[slot] = id + 1;
+
+        // Keep the load factor at or below one half.
+        if (symbolCount * 2 > slots.length)
+        {
+            rehash(slots.length * 2);
+        }
+
+        return id;
+    }
+
+
+    /**
+     * Returns the id of the given string, or -1 if it isn't present. Unlike
+     * the other methods, it doesn't modify the table.
+     */
+    public int indexOf(String symbol)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(symbol) & mask;
+
+        while (true)
+        {
+            int id = slots[slot] - 1;
+            if (id < 0 || symbols[id].equals(symbol))
+            {
+                return id;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+
+    /**
+     * Returns the stored instance that is equal to the given string, adding
+     * the string if it isn't present yet.
+     */
+    public String intern(String symbol)
+    {
+        int id = add(symbol);
+
+        return symbols[id];
+    }
+
+
+    /**
+     * Returns the string with the given id.
+     */
+    public String get(int id)
+    {
+        return symbols[id];
+    }
+
+
+    /**
+     * Returns the number of distinct strings.
+     */
+    public int size()
+    {
+        return symbolCount;
+    }
+
+
+    /**
+     * Returns an estimate of the number of bytes that this table retains,
+     * including its strings.
+     */
+    public long getSize()
+    {
+        return 4L * (symbols.length + slots.length) +
+               (long)STRING_SIZE * symbolCount      +
+               2L * characterCount;
+    }
+
+
+    // Small utility methods.
+
+    private void rehash(int capacity)
+    {
+        int[] newSlots = new int[capacity];
+        int   mask     = capacity - 1;
+
+        for (int id = 0; id < symbolCount; id++)
+        {
+            int slot = hash(symbols[id]) & mask;
+            while (newSlots[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+
+            newSlots[slot] = id + 1;
+        }
+
+        slots = newSlots;
+    }
+
+
+    /**
+     * Spreads the bits of the string hash code, since linear probing
+     * is sensitive to clustered hash codes.
+     */
+    private static int hash(String symbol)
+    {
+        int hash = symbol.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
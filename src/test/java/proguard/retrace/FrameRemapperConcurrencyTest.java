@@ -0,0 +1,335 @@
+/*
+ * ProGuard -- shrinking, optimization, obfuscation, and preverification
+ *             of Java bytecode.
+ *
+ * Copyright (c) 2002-2018 GuardSquare NV
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package proguard.retrace;
+
+import org.junit.*;
+import proguard.obfuscate.MappingReader;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests for sharing frozen FrameRemapper instances between threads.
+ * Many threads transform all frames of a sample stack trace concurrently,
+ * each in its own random order, and their results have to be the same as
+ * the results of a single thread.
+ *
+ * @author F43nd1r
+ */
+public class FrameRemapperConcurrencyTest
+{
+    private static final int THREAD_COUNT = 16;
+    private static final int ROUND_COUNT  = 20;
+    private static final int CLASS_COUNT  = 500;
+
+    private static final long PUBLICATION_TIMEOUT = 30L;
+
+    private static String          mapping;
+    private static List<FrameInfo> obfuscatedFrames;
+    private static List<String>    expectedFrames;
+
+
+    @BeforeClass
+    public static void createSample() throws IOException
+    {
+        mapping          = createMapping();
+        obfuscatedFrames = createObfuscatedFrames();
+
+        // Transform the frames in a single thread.
+        expectedFrames = transform(ReTrace.loadMapping(new StringReader(mapping)),
+                                   new Random(0L),
+                                   false);
+    }
+
+
+    @Test
+    public void transformsConcurrentlyWithLoadedMapping() throws Exception
+    {
+        for (int round = 0; round < ROUND_COUNT; round++)
+        {
+            final FrameRemapper mapper = ReTrace.loadMapping(new StringReader(mapping));
+            assertTrue(mapper.isFrozen());
+
+            final CyclicBarrier barrier = new CyclicBarrier(THREAD_COUNT);
+
+            runThreads(new ThreadBody()
+            {
+                public List<String> run(Random random) throws Exception
+                {
+                    barrier.await();
+
+                    return transform(mapper, random, true);
+                }
+            });
+        }
+    }
+
+
+    @Test
+    public void transformsConcurrentlyWithMappingPublishedAfterFreezing() throws Exception
+    {
+        for (int round = 0; round < ROUND_COUNT; round++)
+        {
+            final AtomicReference<FrameRemapper> sharedMapper = new AtomicReference<FrameRemapper>();
+            final CountDownLatch                 published    = new CountDownLatch(1);
+
+            ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+            try
+            {
+                List<Future<List<String>>> futures = submitThreads(executor, new ThreadBody()
+                {
+                    public List<String> run(Random random) throws Exception
+                    {
+                        // Wait until the remapper shows up.
+                        if (!published.await(PUBLICATION_TIMEOUT, TimeUnit.SECONDS))
+                        {
+                            throw new TimeoutException("The remapper was never published");
+                        }
+
+                        return transform(sharedMapper.get(), random, true);
+                    }
+                });
+
+                // Build and freeze the remapper while the threads are
+                // already waiting for it.
+                FrameRemapper builder = new FrameRemapper();
+                new MappingReader(new StringReader(mapping)).pump(builder);
+
+                sharedMapper.set(builder.freeze());
+                published.countDown();
+
+                checkResults(futures);
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+
+    @Test
+    public void rejectsMappingAfterFreezing() throws IOException
+    {
+        FrameRemapper builder = new FrameRemapper();
+        new MappingReader(new StringReader(mapping)).pump(builder);
+        assertFalse(builder.isFrozen());
+
+        FrameRemapper mapper = builder.freeze();
+        assertTrue(mapper.isFrozen());
+        assertSame(mapper, mapper.freeze());
+
+        try
+        {
+            mapper.processClassMapping("com.example.Extra", "z.z");
+            fail("A frozen remapper accepted a class mapping");
+        }
+        catch (UnsupportedOperationException expected)
+        {
+        }
+
+        try
+        {
+            builder.processClassMapping("com.example.Extra", "z.z");
+            fail("The builder of a frozen remapper accepted a class mapping");
+        }
+        catch (IllegalStateException expected)
+        {
+        }
+
+        assertEquals(expectedFrames, transform(mapper, new Random(0L), false));
+    }
+
+
+    // Small utility methods.
+
+    /**
+     * This interface represents the work of a single worker thread.
+     */
+    private interface ThreadBody
+    {
+        public List<String> run(Random random) throws Exception;
+    }
+
+
+    /**
+     * Runs the given body in all worker threads and checks their results.
+     */
+    private static void runThreads(ThreadBody body) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try
+        {
+            checkResults(submitThreads(executor, body));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Submits the given body for all worker threads, each with its own
+     * random order.
+     */
+    private static List<Future<List<String>>> submitThreads(ExecutorService  executor,
+                                                           final ThreadBody body)
+    {
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+        for (int thread = 0; thread < THREAD_COUNT; thread++)
+        {
+            final Random random = new Random(thread + 1);
+
+            futures.add(executor.submit(new Callable<List<String>>()
+            {
+                public List<String> call() throws Exception
+                {
+                    return body.run(random);
+                }
+            }));
+        }
+
+        return futures;
+    }
+
+
+    /**
+     * Checks that all worker threads have transformed the frames in the
+     * same way as a single thread.
+     */
+    private static void checkResults(List<Future<List<String>>> futures) throws Exception
+    {
+        for (Future<List<String>> future : futures)
+        {
+            assertEquals(expectedFrames, future.get(60, TimeUnit.SECONDS));
+        }
+    }
+
+
+    /**
+     * Transforms all obfuscated frames with the given remapper, optionally
+     * in a random order, returning the printed results in the original
+     * order.
+     */
+    private static List<String> transform(FrameRemapper mapper,
+                                          Random        random,
+                                          boolean       shuffle)
+    {
+        int frameCount = obfuscatedFrames.size();
+
+        List<Integer> order = new ArrayList<Integer>(frameCount);
+        for (int index = 0; index < frameCount; index++)
+        {
+            order.add(index);
+        }
+
+        if (shuffle)
+        {
+            Collections.shuffle(order, random);
+        }
+
+        String[] results = new String[frameCount];
+        for (int index : order)
+        {
+            results[index] = toString(mapper.transform(obfuscatedFrames.get(index)));
+        }
+
+        return Arrays.asList(results);
+    }
+
+
+    /**
+     * Returns a mapping with class names, fields, overloaded methods
+     * without line numbers, methods with line numbers, and R8 inlining
+     * chains.
+     */
+    private static String createMapping()
+    {
+        StringBuilder mapping = new StringBuilder();
+        for (int index = 0; index < CLASS_COUNT; index++)
+        {
+            mapping.append("com.example.pkg").append(index % 7).append(".Class").append(index)
+                   .append(" -> a.a").append(index).append(":\n")
+                   .append("    int count -> a\n")
+                   .append("    java.lang.String name -> b\n")
+                   .append("    1:10:void run():20:29 -> a\n")
+                   .append("    12:15:int compute(int):").append(100 + index).append(":").append(103 + index).append(" -> a\n")
+                   .append("    void first() -> b\n")
+                   .append("    void second(com.example.pkg0.Class0) -> b\n")
+                   .append("    20:20:void com.example.Util.helper():50:50 -> c\n")
+                   .append("    20:20:void caller():60:60 -> c\n");
+        }
+
+        return mapping.toString();
+    }
+
+
+    /**
+     * Returns the frames of a sample stack trace, including frames that
+     * don't match the mapping.
+     */
+    private static List<FrameInfo> createObfuscatedFrames()
+    {
+        List<FrameInfo> frames = new ArrayList<FrameInfo>();
+        for (int index = 0; index < CLASS_COUNT; index++)
+        {
+            String className = "a.a" + index;
+
+            frames.add(new FrameInfo(className, "SourceFile", 5,  null,  null, "a", null));
+            frames.add(new FrameInfo(className, "SourceFile", 13, null,  null, "a", null));
+            frames.add(new FrameInfo(className, "SourceFile", 0,  null,  null, "b", null));
+            frames.add(new FrameInfo(className, "SourceFile", 20, null,  null, "c", null));
+            frames.add(new FrameInfo(className, "SourceFile", 99, null,  null, "d", null));
+            frames.add(new FrameInfo(className, null,         0,  "int", "a",  null, null));
+            frames.add(new FrameInfo(className, null,         0,  null,  null, null, null));
+        }
+
+        frames.add(new FrameInfo("b.Unknown", "SourceFile", 3, null, null, "a", null));
+
+        return frames;
+    }
+
+
+    /**
+     * Returns a printable representation of the given transformed frames,
+     * including their source files.
+     */
+    private static String toString(List<FrameInfo> frames)
+    {
+        if (frames == null)
+        {
+            return "null";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (FrameInfo frame : frames)
+        {
+            builder.append(frame).append(" file=[").append(frame.getSourceFile()).append("]\n");
+        }
+
+        return builder.toString();
+    }
+}